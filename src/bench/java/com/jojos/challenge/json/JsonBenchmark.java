@@ -0,0 +1,92 @@
+package com.jojos.challenge.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hand-written json of the hot responses against Jackson, writing to a stream that discards the bytes.
+ * Run it with -prof gc to compare the allocation per response.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonWriters.SumWriter sumWriter = new JsonWriters.SumWriter();
+    private final JsonWriters.TransactionWriter transactionWriter = new JsonWriters.TransactionWriter();
+    private final JsonWriters.IdsWriter idsWriter = new JsonWriters.IdsWriter();
+
+    private Sum sum;
+    private Transaction transaction;
+    private long[] ids;
+
+    @Setup
+    public void setUp() {
+        sum = new Sum(123456.78d);
+        transaction = new Transaction(99.95d, "shopping", 1234L);
+        transaction.setId(5678L);
+        ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1_000_000L + i * 7L;
+        }
+    }
+
+    @Benchmark
+    public void sumJackson() throws IOException {
+        mapper.writeValue(DISCARD, sum);
+    }
+
+    @Benchmark
+    public void sumWriter() throws IOException {
+        sumWriter.writeTo(sum, Sum.class, Sum.class, null, null, null, DISCARD);
+    }
+
+    @Benchmark
+    public void transactionJackson() throws IOException {
+        mapper.writeValue(DISCARD, transaction);
+    }
+
+    @Benchmark
+    public void transactionWriter() throws IOException {
+        transactionWriter.writeTo(transaction, Transaction.class, Transaction.class, null, null, null, DISCARD);
+    }
+
+    @Benchmark
+    public void idsJackson() throws IOException {
+        mapper.writeValue(DISCARD, ids);
+    }
+
+    @Benchmark
+    public void idsWriter() throws IOException {
+        idsWriter.writeTo(ids, long[].class, long[].class, null, null, null, DISCARD);
+    }
+}
@@ -0,0 +1,319 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.util.Config;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop http load generator. It starts the {@link Server} on this machine, or targets a running one, preloads
+ * it with transactions and then sends a mix of requests at a fixed rate, reporting the throughput and the latency
+ * percentiles of every kind of request. Run it with e.g.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.jojos.challenge.resource.LoadGenerator -Dbench.args="--load.rate=5000"
+ *
+ * Requests are sent on a schedule that doesn't depend on the responses: request i is due at start + i / rate, and its
+ * latency is measured from that moment rather than from when it was actually sent. A server that stalls therefore
+ * shows the delay of every request queued up behind the stall, instead of slowing the generator down and hiding it.
+ * The generator can only keep the schedule with enough connections though, roughly rate times the latency.
+ *
+ * Options, given as --name=value arguments or -Dtransactions.name=value properties along with the options of the
+ * server itself:
+ * <pre>
+ *   load.url          the root of a running server, e.g. http://host:8089/. The embedded server is started if omitted
+ *   load.rate         requests per second, 1000 by default
+ *   load.warmup       seconds of requests sent before measuring, 10 by default
+ *   load.duration     seconds of requests measured, 30 by default
+ *   load.connections  the number of concurrent connections, 64 by default
+ *   load.preload      transactions inserted before the run, 100000 by default
+ *   load.mix          the weights of the requests, put=20,get=30,sum=40,types=10 by default
+ *   load.report       a directory where the latency distribution of every request is written, as NAME.hgrm
+ * </pre>
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LoadGenerator {
+
+    private enum Operation {
+        PUT, GET, SUM, TYPES
+    }
+
+    private static final String[] TYPES = new String[100];
+    private static final int PRELOAD_BATCH = 1000;
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPES[i] = "type" + i;
+        }
+    }
+
+    private final String root;
+    private final int rate;
+    private final int connections;
+    private final int[] weights = new int[Operation.values().length];
+    private final int totalWeight;
+    // the last id handed out, the preloaded transactions are the ones read
+    private final AtomicLong lastId = new AtomicLong();
+    private final long preloaded;
+
+    private final Recorder[] recorders = new Recorder[Operation.values().length];
+    private final Histogram[] totals = new Histogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+
+    private LoadGenerator(String root, int rate, int connections, String mix, long preloaded) {
+        this.root = root;
+        this.rate = rate;
+        this.connections = connections;
+        this.preloaded = preloaded;
+        for (String weight : mix.split(",")) {
+            String[] pair = weight.split("=");
+            weights[Operation.valueOf(pair[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(pair[1].trim());
+        }
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        totalWeight = total;
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(3);
+            totals[i] = new Histogram(3);
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config.parseArgs(args);
+        String url = Config.get("load.url", null);
+        Server server = null;
+        if (url == null) {
+            server = new Server();
+            server.start();
+            url = server.getURI().toString();
+        }
+        try {
+            LoadGenerator generator = new LoadGenerator(url + (url.endsWith("/") ? "" : "/") + "transactionservice/",
+                    Config.getInt("load.rate", 1000), Config.getInt("load.connections", 64),
+                    Config.get("load.mix", "put=20,get=30,sum=40,types=10"), Config.getLong("load.preload", 100_000));
+            generator.preload();
+            generator.run(Config.getInt("load.warmup", 10), Config.getInt("load.duration", 30));
+            String report = Config.get("load.report", null);
+            if (report != null) {
+                generator.writeReport(Paths.get(report));
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+                TransactionHandler.INSTANCE.close();
+            }
+        }
+    }
+
+    // insert the transactions read during the run through the batch endpoint
+    private void preload() throws IOException {
+        long start = System.nanoTime();
+        StringBuilder body = new StringBuilder();
+        while (lastId.get() < preloaded) {
+            body.setLength(0);
+            body.append('[');
+            for (int i = 0; i < PRELOAD_BATCH && lastId.get() < preloaded; i++) {
+                long id = lastId.incrementAndGet();
+                body.append(i == 0 ? "" : ",").append("{\"id\":").append(id).append(',');
+                appendTransaction(body, id);
+            }
+            body.append(']');
+            int status = request("PUT", "transactions", body.toString());
+            if (status != 200) {
+                throw new IOException("Preloading failed with status " + status);
+            }
+        }
+        System.out.printf("Preloaded %d transactions in %d ms%n", preloaded,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void run(int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long count = (long) rate * (warmupSeconds + durationSeconds);
+        double interval = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+        AtomicLong scheduled = new AtomicLong();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread sender = new Thread(() -> send(start, interval, count, scheduled), "load-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+
+        System.out.printf("Sending %d requests/s over %d connections, %d s warmup and %d s measured%n",
+                rate, connections, warmupSeconds, durationSeconds);
+        Histogram interval99 = new Histogram(3);
+        for (int second = 1; second <= warmupSeconds + durationSeconds; second++) {
+            LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+            boolean measured = second > warmupSeconds;
+            interval99.reset();
+            for (int op = 0; op < recorders.length; op++) {
+                Histogram histogram = recorders[op].getIntervalHistogram();
+                interval99.add(histogram);
+                if (measured) {
+                    totals[op].add(histogram);
+                }
+            }
+            System.out.printf("%s %3d s %8d requests  p99 %8.3f ms  max %8.3f ms%n", measured ? "measure" : "warmup ",
+                    second, interval99.getTotalCount(), interval99.getValueAtPercentile(99) / 1000d,
+                    interval99.getMaxValue() / 1000d);
+            if (second == warmupSeconds) {
+                for (LongAdder error : errors) {
+                    error.reset();
+                }
+            }
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        // whatever completed after the last second belongs to the measurement too
+        for (int op = 0; op < recorders.length; op++) {
+            totals[op].add(recorders[op].getIntervalHistogram());
+        }
+        printSummary(durationSeconds);
+    }
+
+    private void send(long start, double interval, long count, AtomicLong scheduled) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder body = new StringBuilder();
+        long i;
+        while ((i = scheduled.getAndIncrement()) < count) {
+            long due = start + (long) (i * interval);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick(random);
+            int status;
+            try {
+                status = execute(operation, random, body);
+            } catch (IOException e) {
+                status = -1;
+            }
+            recorders[operation.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+            if (status != 200) {
+                errors[operation.ordinal()].increment();
+            }
+        }
+    }
+
+    private Operation pick(ThreadLocalRandom random) {
+        int value = random.nextInt(totalWeight);
+        for (Operation operation : Operation.values()) {
+            value -= weights[operation.ordinal()];
+            if (value < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("No operation has a weight");
+    }
+
+    private int execute(Operation operation, ThreadLocalRandom random, StringBuilder body) throws IOException {
+        switch (operation) {
+            case PUT:
+                long id = lastId.incrementAndGet();
+                body.setLength(0);
+                body.append('{');
+                appendTransaction(body, id);
+                return request("PUT", "transaction/" + id, body.toString());
+            case GET:
+                return request("GET", "transaction/" + (1 + random.nextLong(preloaded)), null);
+            case SUM:
+                return request("GET", "sum/" + (1 + random.nextLong(preloaded)), null);
+            case TYPES:
+                return request("GET", "types/" + TYPES[random.nextInt(TYPES.length)], null);
+            default:
+                throw new IllegalArgumentException(operation.toString());
+        }
+    }
+
+    // one transaction in ten starts a new tree, the rest go under a random transaction with a smaller id
+    private static void appendTransaction(StringBuilder body, long id) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long parentId = id == 1 || random.nextInt(10) == 0 ? TransactionHandler.NO_PARENT : 1 + random.nextLong(id - 1);
+        body.append("\"amount\":").append(random.nextInt(1000))
+                .append(",\"type\":\"").append(TYPES[(int) (id % TYPES.length)])
+                .append("\",\"parent_id\":").append(parentId).append('}');
+    }
+
+    // the response is read to the end, so that the connection is kept alive and reused
+    private int request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(root + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (input != null) {
+            try (InputStream response = input) {
+                byte[] buffer = new byte[8192];
+                while (response.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private void printSummary(int durationSeconds) {
+        System.out.printf("%n%-8s %10s %8s %10s %10s %10s %10s %10s %10s%n", "request", "count", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram all = new Histogram(3);
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = totals[operation.ordinal()];
+            long errorCount = errors[operation.ordinal()].sum();
+            printLine(operation.name().toLowerCase(), histogram, errorCount, durationSeconds);
+            all.add(histogram);
+            allErrors += errorCount;
+        }
+        printLine("all", all, allErrors, durationSeconds);
+    }
+
+    private static void printLine(String name, Histogram histogram, long errorCount, int durationSeconds) {
+        System.out.printf("%-8s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                histogram.getTotalCount(), errorCount, histogram.getTotalCount() / (double) durationSeconds,
+                histogram.getValueAtPercentile(50) / 1000d, histogram.getValueAtPercentile(90) / 1000d,
+                histogram.getValueAtPercentile(99) / 1000d, histogram.getValueAtPercentile(99.9) / 1000d,
+                histogram.getMaxValue() / 1000d);
+    }
+
+    // the distributions in milliseconds, in the format of the HdrHistogram plotter
+    private void writeReport(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (Operation operation : Operation.values()) {
+            Path file = directory.resolve(operation.name().toLowerCase() + ".hgrm");
+            try (PrintStream output = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+                totals[operation.ordinal()].outputPercentileDistribution(output, 1000d);
+            }
+        }
+        System.out.println("Wrote the latency distributions to " + directory);
+    }
+}
@@ -0,0 +1,51 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.Transaction;
+
+/**
+ * Builds the data the benchmarks run against.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static String[] types(int count) {
+        String[] types = new String[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = "type" + i;
+        }
+        return types;
+    }
+
+    /**
+     * Insert a chain of transactions with ids first to first + length - 1, each one the parent of the next.
+     * The chain is inserted leaf first, which costs O(length) in total, whereas root first would cost O(length^2)
+     * in sum updates.
+     */
+    static void chain(TransactionHandler handler, long first, int length, String type) {
+        for (long id = first + length - 1; id >= first; id--) {
+            insert(handler, id, id == first ? TransactionHandler.NO_PARENT : id - 1, type);
+        }
+    }
+
+    /**
+     * Insert a transaction with id first and width children with the following ids
+     */
+    static void fanOut(TransactionHandler handler, long first, int width, String type) {
+        insert(handler, first, TransactionHandler.NO_PARENT, type);
+        for (long id = first + 1; id <= first + width; id++) {
+            insert(handler, id, first, type);
+        }
+    }
+
+    static void insert(TransactionHandler handler, long id, long parentId, String type) {
+        Transaction transaction = new Transaction(1d, type, parentId);
+        transaction.setId(id);
+        if (!handler.insert(transaction)) {
+            throw new IllegalStateException("Unable to insert " + transaction);
+        }
+    }
+}
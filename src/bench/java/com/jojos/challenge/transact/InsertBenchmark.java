@@ -0,0 +1,75 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of {@link TransactionHandler#insert(Transaction)} for chains of transactions inserted root first, where
+ * every insert updates the sums of its ancestors, and leaf first, where every child waits for its parent. With the
+ * hierarchy index an insert links Euler tours in O(log N) instead of updating every ancestor.
+ *
+ * Every thread inserts into a handler of its own, which is replaced on every iteration.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InsertBenchmark {
+
+    private static final String[] TYPES = BenchmarkData.types(100);
+
+    // the number of transactions of every chain
+    @Param({"1", "10", "1000"})
+    public int chainLength;
+
+    // whether the sums are read from the hierarchy index
+    @Param({"eager", "tree"})
+    public String index;
+
+    private TransactionHandler handler;
+    private long inserted;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        handler = new TransactionHandler(new HeapTransactionStore(), null, null,
+                4 * Runtime.getRuntime().availableProcessors(), "tree".equals(index));
+        inserted = 0;
+    }
+
+    @Benchmark
+    public boolean parentsInOrder() {
+        long i = inserted++;
+        return insert(i % chainLength, i / chainLength);
+    }
+
+    @Benchmark
+    public boolean parentsOutOfOrder() {
+        long i = inserted++;
+        return insert(chainLength - 1 - i % chainLength, i / chainLength);
+    }
+
+    private boolean insert(long position, long chain) {
+        long id = chain * chainLength + position + 1;
+        Transaction transaction = new Transaction(1d, TYPES[(int) (chain % TYPES.length)],
+                position == 0 ? TransactionHandler.NO_PARENT : id - 1);
+        transaction.setId(id);
+        return handler.insert(transaction);
+    }
+}
@@ -0,0 +1,109 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Readers and writers sharing a handler, in three mixes of threads: mostly reading, half and half and mostly
+ * writing. The readers look up random sums and transactions, the writers insert transactions under random
+ * existing parents. Scale a mix with -tg, e.g. -tg 12,4 runs readHeavy with twelve readers and four writers.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedBenchmark {
+
+    private static final int PRELOADED = 100_000;
+    private static final String[] TYPES = BenchmarkData.types(100);
+
+    private TransactionHandler handler;
+    // the id of the next transaction to insert
+    private final AtomicLong next = new AtomicLong(1);
+
+    @Setup
+    public void setUp() {
+        handler = new TransactionHandler();
+        for (int i = 0; i < PRELOADED; i++) {
+            write();
+        }
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public Object readHeavyRead() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public boolean readHeavyWrite() {
+        return write();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public Object balancedRead() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public boolean balancedWrite() {
+        return write();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public Object writeHeavyRead() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public boolean writeHeavyWrite() {
+        return write();
+    }
+
+    // every other read is a sum, the rest materialize the transaction
+    private Object read() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = 1 + random.nextLong(next.get() - 1);
+        return random.nextBoolean() ? handler.getSum(id) : handler.getTransaction(id);
+    }
+
+    // every tenth transaction starts a new tree, the rest go under a random transaction inserted before them
+    private boolean write() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = next.getAndIncrement();
+        long parentId = id == 1 || random.nextInt(10) == 0 ? TransactionHandler.NO_PARENT : 1 + random.nextLong(id - 1);
+        Transaction transaction = new Transaction(1d, TYPES[(int) (id % TYPES.length)], parentId);
+        transaction.setId(id);
+        return handler.insert(transaction);
+    }
+}
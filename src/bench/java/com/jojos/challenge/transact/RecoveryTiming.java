@@ -0,0 +1,109 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.persist.SyncPolicy;
+import com.jojos.challenge.persist.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a restart takes, replaying the whole write-ahead log versus loading a snapshot and replaying
+ * only the tail of the log. Not a unit test, run it with e.g.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.jojos.challenge.transact.RecoveryTiming -Dbench.args=10000000
+ *
+ * which runs it with -Xmx3g, enough heap for 10M transactions.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class RecoveryTiming {
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int tail = count / 100;
+        Path root = Files.createTempDirectory("recovery-timing");
+        Path walDirectory = root.resolve("wal");
+        Path snapshotDirectory = root.resolve("snapshots");
+
+        try {
+            TransactionHandler handler = new TransactionHandler(new HeapTransactionStore(),
+                    new WriteAheadLog(walDirectory, SyncPolicy.OS, 10L), snapshotDirectory);
+            long start = System.nanoTime();
+            insert(handler, 0, count);
+            report("Inserted %d transactions", count, start);
+
+            start = System.nanoTime();
+            handler.snapshot();
+            report("Wrote a snapshot of %d transactions", count, start);
+            insert(handler, count, tail);
+            handler.close();
+            handler = null;
+
+            System.gc();
+            start = System.nanoTime();
+            TransactionHandler restarted = new TransactionHandler(new HeapTransactionStore(),
+                    new WriteAheadLog(walDirectory, SyncPolicy.OS, 10L), snapshotDirectory);
+            report("Restarted from the snapshot and %d logged transactions", tail, start);
+            check(restarted, count + tail);
+            restarted.close();
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        // the same restart with the whole history in the log
+        root = Files.createTempDirectory("recovery-timing");
+        walDirectory = root.resolve("wal");
+        try {
+            TransactionHandler handler = new TransactionHandler(new HeapTransactionStore(),
+                    new WriteAheadLog(walDirectory, SyncPolicy.OS, 10L), null);
+            insert(handler, 0, count + tail);
+            handler.close();
+            handler = null;
+
+            System.gc();
+            long start = System.nanoTime();
+            TransactionHandler restarted = new TransactionHandler(new HeapTransactionStore(),
+                    new WriteAheadLog(walDirectory, SyncPolicy.OS, 10L), null);
+            report("Restarted from %d logged transactions", count + tail, start);
+            check(restarted, count + tail);
+            restarted.close();
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // chains of ten transactions, every other chain inserted leaf first so that its children wait for their parents
+    private static void insert(TransactionHandler handler, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            int chain = i / 10;
+            int position = chain % 2 == 0 ? i % 10 : 9 - i % 10;
+            long id = chain * 10L + position + 1;
+            long parentId = position == 0 ? TransactionHandler.NO_PARENT : id - 1;
+            Transaction transaction = new Transaction(1d, "type" + chain % 100, parentId);
+            transaction.setId(id);
+            if (!handler.insert(transaction)) {
+                throw new IllegalStateException("Unable to insert " + transaction);
+            }
+        }
+    }
+
+    private static void check(TransactionHandler handler, int count) {
+        // the root of every complete chain sums up its ten transactions
+        long lastRoot = (count / 10 - 1) * 10L + 1;
+        if (handler.getSum(1L) != 10d || handler.getSum(lastRoot) != 10d) {
+            throw new IllegalStateException("The restarted handler lost some transactions");
+        }
+    }
+
+    private static void report(String message, int count, long start) {
+        System.out.printf(message + " in %d ms%n", count, (System.nanoTime() - start) / 1_000_000L);
+    }
+}
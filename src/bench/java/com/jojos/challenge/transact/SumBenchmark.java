@@ -0,0 +1,69 @@
+package com.jojos.challenge.transact;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of {@link TransactionHandler#getSum(long)} at the root and at a leaf of a deep chain and of a wide
+ * fan-out. The sums are maintained on insertion, so none of them should depend on the size of the tree. With the
+ * hierarchy index they are read from an Euler tour instead, which should only grow with the log of its size.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SumBenchmark {
+
+    @Param({"chain", "fanOut"})
+    public String shape;
+
+    // the number of transactions below the root
+    @Param({"1000", "1000000"})
+    public int size;
+
+    // whether the sums are read from the hierarchy index
+    @Param({"eager", "tree"})
+    public String index;
+
+    private TransactionHandler handler;
+    private long root;
+    private long leaf;
+
+    @Setup
+    public void setUp() {
+        handler = new TransactionHandler(new HeapTransactionStore(), null, null,
+                4 * Runtime.getRuntime().availableProcessors(), "tree".equals(index));
+        root = 1L;
+        leaf = root + size;
+        if ("chain".equals(shape)) {
+            BenchmarkData.chain(handler, root, size + 1, "sum");
+        } else {
+            BenchmarkData.fanOut(handler, root, size, "sum");
+        }
+    }
+
+    @Benchmark
+    public double sumOfRoot() {
+        return handler.getSum(root);
+    }
+
+    @Benchmark
+    public double sumOfLeaf() {
+        return handler.getSum(leaf);
+    }
+}
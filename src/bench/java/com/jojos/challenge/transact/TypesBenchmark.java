@@ -0,0 +1,69 @@
+package com.jojos.challenge.transact;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of {@link TransactionHandler#getTypes(String)} for a hot type holding most of the transactions, a cold
+ * one holding a few and a type that doesn't exist, with the ids of every type in a {@link com.jojos.challenge.util.LongBitmap}.
+ * The lookup itself is constant, expanding the ids out of the bitmap containers is linear in their number. A page of
+ * the hot type from its middle only costs the search for the container of its first id and the page.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypesBenchmark {
+
+    private static final int COLD_EVERY = 1000;
+    private static final int PAGE = 100;
+
+    // the number of transactions of the hot type
+    @Param({"1000", "100000", "1000000"})
+    public int hotSize;
+
+    private TransactionHandler handler;
+
+    @Setup
+    public void setUp() {
+        handler = new TransactionHandler();
+        for (long id = 1; id <= hotSize; id++) {
+            BenchmarkData.insert(handler, id, TransactionHandler.NO_PARENT, id % COLD_EVERY == 0 ? "cold" : "hot");
+        }
+    }
+
+    @Benchmark
+    public long[] hotType() {
+        return handler.getTypes("hot");
+    }
+
+    @Benchmark
+    public long[] hotTypePage() {
+        return handler.getTypes("hot", hotSize / 2, PAGE);
+    }
+
+    @Benchmark
+    public long[] coldType() {
+        return handler.getTypes("cold");
+    }
+
+    @Benchmark
+    public long[] missingType() {
+        return handler.getTypes("missing");
+    }
+}
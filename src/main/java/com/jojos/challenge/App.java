@@ -1,9 +1,21 @@
 package com.jojos.challenge;
 
+import com.jojos.challenge.cluster.Cluster;
+import com.jojos.challenge.json.ImportResult;
+import com.jojos.challenge.replication.Replication;
 import com.jojos.challenge.resource.Server;
+import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.transact.TransactionImporter;
+import com.jojos.challenge.util.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * The application's main entry point.
  *
@@ -15,16 +27,58 @@ public class App {
 
 	private Server server;
 
+	/**
+	 * Start the server, or with {@code import FILE} load a newline-delimited json file of transactions and exit.
+	 * Options given as {@code --name=value} come first, see {@link Config}. A node of a cluster or a follower of the
+	 * replication refuses the import.
+	 */
 	public static void main(String[] args) {
+		int command = Config.parseArgs(args);
+		if (command < args.length && "import".equals(args[command])) {
+			if (command + 1 >= args.length) {
+				System.err.println("Usage: import FILE");
+				System.exit(1);
+			}
+			System.exit(importFile(Paths.get(args[command + 1])) ? 0 : 1);
+		}
 		App app = new App();
 		app.start();
 	}
 
+	// only a standalone node or a leader stores whatever it's given. A node of a cluster would keep the transactions
+	// of the other nodes where no request reaches them, and a follower would diverge from its leader
+	private static boolean importFile(Path file) {
+		if (Cluster.INSTANCE.isEnabled()) {
+			log.error("Unable to import {} into a node of a cluster. Import it through POST /transactionservice/import", file);
+			return false;
+		}
+		if (Replication.INSTANCE.isFollower()) {
+			log.error("Unable to import {} into a follower of the replication. Import it into the leader", file);
+			return false;
+		}
+		log.info("Importing transactions from {}...", file);
+		ImportResult result;
+		try (InputStream input = Files.newInputStream(file)) {
+			result = new TransactionImporter(TransactionHandler.INSTANCE).importFrom(input);
+		} catch (IOException e) {
+			log.error("Unable to read {}. {}", file, e.getMessage());
+			return false;
+		} finally {
+			// flushes whatever has been imported to the store and the write-ahead log
+			TransactionHandler.INSTANCE.close();
+		}
+		log.info("Import of {} finished. {}", file, result);
+		return result.getError() == null;
+	}
+
 	public void start() {
 		log.info("Starting Embedded Jersey HTTPServer...");
 
+		// the partition is set up before any request comes in, the other nodes retry their pushes until it's up
+		Cluster.INSTANCE.start(TransactionHandler.INSTANCE);
 		server = new Server();
 		server.start();
+		Replication.INSTANCE.start(TransactionHandler.INSTANCE);
 		attachShutDownHook();
 	}
 
@@ -36,6 +90,9 @@ public class App {
 					// every piece of instructions that JVM should execute before going down should be defined here
 					server.stop();
 				}
+				Replication.INSTANCE.stop();
+				Cluster.INSTANCE.stop();
+				TransactionHandler.INSTANCE.close();
 			}
 		});
 	}
@@ -0,0 +1,504 @@
+package com.jojos.challenge.cluster;
+
+import com.jojos.challenge.json.InsertStatus;
+import com.jojos.challenge.json.RemoteSum;
+import com.jojos.challenge.json.Sum;
+import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.json.TypeStats;
+import com.jojos.challenge.metrics.Metrics;
+import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.util.Config;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The transactions partitioned by id across the nodes of a cluster, enabled by the {@code cluster.nodes} option,
+ * the comma-separated host:port of the http server of every node, and the {@code cluster.self} option, the index of
+ * this node among them. Every node is given {@code cluster.points} points (128 by default) on a {@link HashRing}.
+ *
+ * A transaction and its sum are served by the node owning its id, every other node forwards the request there.
+ * The ids of a type and its aggregates are gathered from every node and merged, and a batch is split by owner with
+ * the parts sent in parallel. Forwarded requests carry the {@link #FORWARDED} header, so that they are served from
+ * the partition of the receiving node alone.
+ *
+ * A subtree spanning partitions is summed by pushing: the local {@link TransactionHandler} pushes the sum of every
+ * fragment of the tree whose parent lives on another node, and the owner of the parent adds it in. The pushes to a
+ * node are queued and coalesced by the root of the fragment, since only the latest sum of each matters, and sent in
+ * batches by a thread per node, which retries until the node takes them. A node that starts pushes all of its
+ * fragments and asks the others to do the same, so a restarted node gets back whatever was pushed to it before.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Cluster implements TransactionHandler.RemoteSums {
+
+	private static final Logger log = LoggerFactory.getLogger(Cluster.class);
+
+	// the header of a request forwarded by another node
+	public static final String FORWARDED = "X-Cluster-Forwarded";
+
+	private static final long RETRY_MILLIS = 1000L;
+
+	public final static Cluster INSTANCE = new Cluster(Config.get("cluster.nodes", null), Config.getInt("cluster.self", 0),
+			Config.getInt("cluster.points", 128));
+
+	private final URI[] nodes;
+	private final int self;
+	private final HashRing ring;
+
+	private TransactionHandler handler;
+	private Client client;
+	private WebTarget[] targets;
+	private Pusher[] pushers;
+	private volatile boolean closed;
+
+	/**
+	 * @param nodes the comma-separated host:port of every node, or null if this node is not part of a cluster
+	 * @param self the index of this node
+	 * @param points the number of points of every node on the ring
+	 */
+	Cluster(String nodes, int self, int points) {
+		if (nodes == null) {
+			this.nodes = null;
+			this.self = 0;
+			this.ring = null;
+			return;
+		}
+		String[] addresses = nodes.split(",");
+		this.nodes = new URI[addresses.length];
+		for (int node = 0; node < addresses.length; node++) {
+			this.nodes[node] = URI.create("http://" + addresses[node].trim() + "/");
+		}
+		if (self < 0 || self >= addresses.length) {
+			throw new IllegalArgumentException("cluster.self must be the index of this node among the " + addresses.length + " nodes");
+		}
+		this.self = self;
+		this.ring = new HashRing(addresses.length, points);
+	}
+
+	/**
+	 * @return whether this node is part of a cluster
+	 */
+	public boolean isEnabled() {
+		return nodes != null;
+	}
+
+	/**
+	 * @return whether an id belongs to the partition of this node
+	 */
+	public boolean isLocal(long id) {
+		return ring == null || ring.owner(id) == self;
+	}
+
+	/**
+	 * Partition the handler and start pushing the sums of its fragments to the other nodes
+	 * @param handler the handler of the partition of this node
+	 */
+	public synchronized void start(TransactionHandler handler) {
+		if (!isEnabled()) {
+			return;
+		}
+		this.handler = handler;
+		client = ClientBuilder.newClient().register(JacksonFeature.class);
+		targets = new WebTarget[nodes.length];
+		pushers = new Pusher[nodes.length];
+		for (int node = 0; node < nodes.length; node++) {
+			targets[node] = client.target(nodes[node]);
+			if (node != self) {
+				pushers[node] = new Pusher(node);
+				Thread thread = new Thread(pushers[node], "cluster-pusher-" + node);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		handler.partition(this::isLocal, this);
+		Metrics.INSTANCE.gauge("transactions_cluster_pending_sums", "Sums waiting to be pushed to other nodes.",
+				this::pendingSums);
+		log.info("Serving partition {} of {} nodes", self, nodes.length);
+
+		log.info("Pushed the sums of {} fragments to the other nodes", handler.pushRemoteSums());
+		for (int node = 0; node < nodes.length; node++) {
+			if (node != self) {
+				// a node that isn't up yet will push everything once it starts
+				targets[node].path("cluster/resync").request().async().post(Entity.text(""));
+			}
+		}
+	}
+
+	public synchronized void stop() {
+		closed = true;
+		if (pushers != null) {
+			for (Pusher pusher : pushers) {
+				if (pusher != null) {
+					pusher.wake();
+				}
+			}
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	@Override
+	public void push(long parentId, long id, double sum, long originId) {
+		pushers[ring.owner(parentId)].add(new RemoteSum(id, parentId, sum, originId));
+	}
+
+	/**
+	 * @return the transaction with the id from the node that owns it, null if there is none
+	 */
+	public Transaction getTransaction(long id) {
+		int owner = ring.owner(id);
+		if (owner == self) {
+			return handler.getTransaction(id);
+		}
+		return await(forward(owner, "transactionservice/transaction/" + id).async().get(Transaction.class));
+	}
+
+	/**
+	 * @return the sum of the subtree of the transaction from the node that owns it
+	 */
+	public double getSum(long id) {
+		int owner = ring.owner(id);
+		if (owner == self) {
+			return handler.getSum(id);
+		}
+		return await(forward(owner, "transactionservice/sum/" + id).async().get(Sum.class)).getSum();
+	}
+
+	/**
+	 * @return the transactions with the ids in their order, null for the ones that don't exist, asking every
+	 * node for its own in parallel
+	 */
+	public Transaction[] getTransactions(long[] ids) {
+		int[][] positions = groupByOwner(ids);
+		List<Future<List<Transaction>>> futures = new ArrayList<>();
+		for (int node = 0; node < nodes.length; node++) {
+			futures.add(node == self || positions[node].length == 0 ? null
+					: forward(node, "transactionservice/transactions:get").async()
+					.post(Entity.json(select(ids, positions[node])), new GenericType<List<Transaction>>() { }));
+		}
+		Transaction[] transactions = new Transaction[ids.length];
+		for (int node = 0; node < nodes.length; node++) {
+			if (positions[node].length == 0) {
+				continue;
+			}
+			List<Transaction> part = node == self ? Arrays.asList(handler.getTransactions(select(ids, positions[node])))
+					: await(futures.get(node));
+			for (int i = 0; i < positions[node].length; i++) {
+				transactions[positions[node][i]] = part.get(i);
+			}
+		}
+		return transactions;
+	}
+
+	/**
+	 * @return the sums of the subtrees of the transactions in their order, NaN for the ones that don't exist,
+	 * asking every node for its own in parallel
+	 */
+	public double[] getSums(long[] ids) {
+		int[][] positions = groupByOwner(ids);
+		List<Future<List<Sum>>> futures = new ArrayList<>();
+		for (int node = 0; node < nodes.length; node++) {
+			futures.add(node == self || positions[node].length == 0 ? null
+					: forward(node, "transactionservice/sums:get").async()
+					.post(Entity.json(select(ids, positions[node])), new GenericType<List<Sum>>() { }));
+		}
+		double[] sums = new double[ids.length];
+		for (int node = 0; node < nodes.length; node++) {
+			if (positions[node].length == 0) {
+				continue;
+			}
+			if (node == self) {
+				double[] part = handler.getSums(select(ids, positions[node]));
+				for (int i = 0; i < part.length; i++) {
+					sums[positions[node][i]] = part[i];
+				}
+			} else {
+				List<Sum> part = await(futures.get(node));
+				for (int i = 0; i < positions[node].length; i++) {
+					sums[positions[node][i]] = part.get(i) == null ? Double.NaN : part.get(i).getSum();
+				}
+			}
+		}
+		return sums;
+	}
+
+	/**
+	 * Fill a page with the ids of a type across the cluster, the first ones of every node merged in ascending order
+	 * @return the number of ids copied, less than the length of the page once there are no more
+	 */
+	public int getTypes(String type, long from, long[] page) {
+		long[] ids = getTypes(type, from, page.length);
+		System.arraycopy(ids, 0, page, 0, ids.length);
+		return ids.length;
+	}
+
+	/**
+	 * @return a page of the ids of a type from the given one on across the cluster, in ascending order
+	 */
+	public long[] getTypes(String type, long from, int limit) {
+		List<Future<long[]>> futures = new ArrayList<>();
+		for (int node = 0; node < nodes.length; node++) {
+			if (node == self) {
+				futures.add(null);
+				continue;
+			}
+			WebTarget target = targets[node].path("transactionservice/types/{type}").resolveTemplate("type", type)
+					.queryParam("limit", limit);
+			if (from != Long.MIN_VALUE) {
+				target = target.queryParam("after", from - 1);
+			}
+			futures.add(target.request(MediaType.APPLICATION_JSON_TYPE).header(FORWARDED, "true").async().get(long[].class));
+		}
+		long[][] parts = new long[nodes.length][];
+		int total = 0;
+		for (int node = 0; node < nodes.length; node++) {
+			parts[node] = node == self ? handler.getTypes(type, from, limit) : await(futures.get(node));
+			total += parts[node].length;
+		}
+		long[] merged = new long[total];
+		int length = 0;
+		for (long[] part : parts) {
+			System.arraycopy(part, 0, merged, length, part.length);
+			length += part.length;
+		}
+		// the partitions are disjoint, so the first ids of all of them are the first of the type
+		Arrays.sort(merged);
+		return merged.length <= limit ? merged : Arrays.copyOf(merged, limit);
+	}
+
+	/**
+	 * @return the aggregates of a type, merged from those of every node
+	 */
+	public TypeStats getTypeStats(String type) {
+		List<Future<TypeStats>> futures = new ArrayList<>();
+		for (int node = 0; node < nodes.length; node++) {
+			futures.add(node == self ? CompletableFuture.completedFuture(handler.getTypeStats(type))
+					: targets[node].path("transactionservice/types/{type}/stats").resolveTemplate("type", type)
+					.request(MediaType.APPLICATION_JSON_TYPE).header(FORWARDED, "true").async().get(TypeStats.class));
+		}
+		long count = 0L;
+		double sum = 0d;
+		Double min = null;
+		Double max = null;
+		for (Future<TypeStats> future : futures) {
+			TypeStats stats = await(future);
+			count += stats.getCount();
+			sum += stats.getSum();
+			if (stats.getMin() != null) {
+				min = min == null ? stats.getMin() : Math.min(min, stats.getMin());
+				max = max == null ? stats.getMax() : Math.max(max, stats.getMax());
+			}
+		}
+		return new TypeStats(type, count, sum, min, max);
+	}
+
+	/**
+	 * Store a transaction on the node that owns it
+	 * @return true if the transaction succeeded, false otherwise
+	 */
+	public boolean insert(Transaction transaction) {
+		int owner = ring.owner(transaction.getId());
+		if (owner == self) {
+			return handler.insert(transaction);
+		}
+		InsertStatus status = await(forward(owner, "transactionservice/transaction/" + transaction.getId()).async()
+				.put(Entity.json(transaction), InsertStatus.class));
+		return isOk(status);
+	}
+
+	/**
+	 * Store a batch of transactions, each part on the node that owns it, in parallel
+	 * @return whether each transaction succeeded, in the order of the batch
+	 */
+	public boolean[] insertAll(List<Transaction> transactions) {
+		long[] ids = new long[transactions.size()];
+		for (int i = 0; i < ids.length; i++) {
+			// a null is refused by whichever node it's sent to
+			Transaction transaction = transactions.get(i);
+			ids[i] = transaction == null ? 0L : transaction.getId();
+		}
+		int[][] positions = groupByOwner(ids);
+		List<Future<List<InsertStatus>>> futures = new ArrayList<>();
+		for (int node = 0; node < nodes.length; node++) {
+			futures.add(node == self || positions[node].length == 0 ? null
+					: forward(node, "transactionservice/transactions").async()
+					.put(Entity.json(select(transactions, positions[node])), new GenericType<List<InsertStatus>>() { }));
+		}
+		boolean[] results = new boolean[ids.length];
+		for (int node = 0; node < nodes.length; node++) {
+			if (positions[node].length == 0) {
+				continue;
+			}
+			if (node == self) {
+				boolean[] part = handler.insertAll(select(transactions, positions[node]));
+				for (int i = 0; i < part.length; i++) {
+					results[positions[node][i]] = part[i];
+				}
+			} else {
+				List<InsertStatus> part = await(futures.get(node));
+				for (int i = 0; i < positions[node].length; i++) {
+					results[positions[node][i]] = isOk(part.get(i));
+				}
+			}
+		}
+		return results;
+	}
+
+	private Invocation.Builder forward(int node, String path) {
+		return targets[node].path(path).request(MediaType.APPLICATION_JSON_TYPE).header(FORWARDED, "true");
+	}
+
+	// the positions of the ids, grouped by the node they belong to
+	private int[][] groupByOwner(long[] ids) {
+		int[] owners = new int[ids.length];
+		int[] counts = new int[nodes.length];
+		for (int i = 0; i < ids.length; i++) {
+			owners[i] = ring.owner(ids[i]);
+			counts[owners[i]]++;
+		}
+		int[][] positions = new int[nodes.length][];
+		for (int node = 0; node < nodes.length; node++) {
+			positions[node] = new int[counts[node]];
+			counts[node] = 0;
+		}
+		for (int i = 0; i < ids.length; i++) {
+			positions[owners[i]][counts[owners[i]]++] = i;
+		}
+		return positions;
+	}
+
+	private static long[] select(long[] ids, int[] positions) {
+		long[] selected = new long[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			selected[i] = ids[positions[i]];
+		}
+		return selected;
+	}
+
+	private static <T> List<T> select(List<T> items, int[] positions) {
+		List<T> selected = new ArrayList<>(positions.length);
+		for (int position : positions) {
+			selected.add(items.get(position));
+		}
+		return selected;
+	}
+
+	private static boolean isOk(InsertStatus status) {
+		return status != null && Response.Status.OK.toString().equals(status.getStatus());
+	}
+
+	// the result of a request to another node. A node that can't be reached, or doesn't answer with success, makes
+	// the whole request unavailable rather than partial
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException(RETRY_MILLIS / 1000L, e);
+		} catch (ExecutionException e) {
+			log.error("A node of the cluster failed to answer. {}", e.getCause().getMessage());
+			throw new ServiceUnavailableException(RETRY_MILLIS / 1000L, e.getCause());
+		}
+	}
+
+	private long pendingSums() {
+		long pending = 0L;
+		for (Pusher pusher : pushers) {
+			if (pusher != null) {
+				pending += pusher.size();
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Pushes the sums queued for a node, the latest sum of every fragment in a batch at a time
+	 */
+	private final class Pusher implements Runnable {
+
+		private final int node;
+		// the latest sum of every fragment, by the id of its root
+		private final Map<Long, RemoteSum> pending = new LinkedHashMap<>();
+
+		Pusher(int node) {
+			this.node = node;
+		}
+
+		synchronized void add(RemoteSum sum) {
+			pending.put(sum.getId(), sum);
+			notifyAll();
+		}
+
+		synchronized int size() {
+			return pending.size();
+		}
+
+		synchronized void wake() {
+			notifyAll();
+		}
+
+		@Override
+		public void run() {
+			while (!closed) {
+				List<RemoteSum> batch;
+				synchronized (this) {
+					while (pending.isEmpty() && !closed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					batch = new ArrayList<>(pending.values());
+					pending.clear();
+				}
+				if (batch.isEmpty()) {
+					continue;
+				}
+				try {
+					Response response = targets[node].path("cluster/sums").request().post(Entity.json(batch));
+					response.close();
+					if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+						throw new WebApplicationException(response.getStatus());
+					}
+				} catch (ProcessingException | WebApplicationException e) {
+					log.warn("Unable to push {} sums to node {}, retrying. {}", batch.size(), node, e.getMessage());
+					synchronized (this) {
+						// a sum queued meanwhile is newer than the one that failed
+						for (RemoteSum sum : batch) {
+							pending.putIfAbsent(sum.getId(), sum);
+						}
+					}
+					try {
+						Thread.sleep(RETRY_MILLIS);
+					} catch (InterruptedException interrupted) {
+						return;
+					}
+				}
+			}
+		}
+	}
+}
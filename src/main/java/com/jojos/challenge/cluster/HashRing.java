@@ -0,0 +1,65 @@
+package com.jojos.challenge.cluster;
+
+import java.util.Arrays;
+
+/**
+ * A consistent hash ring assigning every transaction id to one of the nodes of a cluster.
+ *
+ * Every node is placed on the ring at a number of points, and an id belongs to the node of the first point at or
+ * after its hash, so the ids spread evenly and adding a node only moves the ids of the points it takes over.
+ * The points are kept in a sorted primitive array, an id is looked up with a binary search in O(log(N * V)) for N
+ * nodes with V points each.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class HashRing {
+
+	private final long[] points;
+	private final int[] owners;
+
+	/**
+	 * @param nodes the number of nodes
+	 * @param pointsPerNode the number of points of every node on the ring
+	 */
+	public HashRing(int nodes, int pointsPerNode) {
+		if (nodes < 1 || pointsPerNode < 1) {
+			throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+		}
+		long[] hashes = new long[nodes * pointsPerNode];
+		for (int node = 0; node < nodes; node++) {
+			for (int point = 0; point < pointsPerNode; point++) {
+				// the hash is a bijection, so every point of every node gets a distinct position
+				hashes[node * pointsPerNode + point] = hash(((long) node << 32) | point);
+			}
+		}
+		long[] sorted = hashes.clone();
+		Arrays.sort(sorted);
+		points = sorted;
+		owners = new int[sorted.length];
+		for (int i = 0; i < hashes.length; i++) {
+			owners[Arrays.binarySearch(sorted, hashes[i])] = i / pointsPerNode;
+		}
+	}
+
+	/**
+	 * @param id a transaction id
+	 * @return the node the id belongs to
+	 */
+	public int owner(long id) {
+		int index = Arrays.binarySearch(points, hash(id));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	// the finalizer of murmur3, which spreads sequential ids all over the ring
+	private static long hash(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+}
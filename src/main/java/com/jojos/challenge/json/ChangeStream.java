@@ -0,0 +1,99 @@
+package com.jojos.challenge.json;
+
+/**
+ * The stored transactions and the sums they change, as a never-ending stream of server-sent events, e.g.
+ * event: insert
+ * data: {"seq":12,"id":12,"amount":10.0,"type":"cars","parent_id":11}
+ *
+ * event: sum
+ * data: {"seq":12,"id":12,"sum":10.0}
+ *
+ * event: sum
+ * data: {"seq":12,"id":11,"sum":20.0}
+ * id: 12
+ *
+ * Every transaction is numbered by its position in the order they have been stored, from 1 on. The changes are read
+ * a chunk at a time, and a chunk of inserts is followed by the sums it has changed, each with its value after the
+ * chunk. The last event of a chunk carries the sequence as its id, so a client resuming from it with Last-Event-ID
+ * gets at least every change it hasn't seen.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class ChangeStream {
+
+    /**
+     * Where the changes come from
+     */
+    public interface Source {
+        /**
+         * Copy the transactions in the order they have been stored, waiting for one if there are none yet
+         * @param from the position of the first transaction to copy, its sequence minus one
+         * @param ids where the ids are copied to, its length being the most transactions copied
+         * @param amounts where the amounts are copied to
+         * @param parentIds where the parent ids are copied to
+         * @param types where the types are copied to
+         * @param timeoutMillis how long to wait for a transaction to be stored
+         * @return the number of transactions copied, 0 if none has been stored within the timeout
+         * @throws InterruptedException if interrupted while waiting
+         */
+        int read(int from, long[] ids, double[] amounts, long[] parentIds, String[] types, long timeoutMillis)
+                throws InterruptedException;
+
+        /**
+         * Tell the sink the sums the transactions at some positions have changed, each once
+         * @param from the position of the first transaction
+         * @param count the number of transactions
+         * @param sink told the id and the current sum of every transaction changed
+         */
+        void sums(int from, int count, SumSink sink);
+    }
+
+    /**
+     * Told the sum of a transaction
+     */
+    public interface SumSink {
+        void sum(long id, double sum);
+    }
+
+    private final Source source;
+    private final long after;
+    private final long heartbeatMillis;
+    private final Runnable onClose;
+
+    /**
+     * @param source where the changes come from
+     * @param after the sequence of the last change already seen, the stream starts with the next one
+     * @param heartbeatMillis how often a comment is sent while nothing changes, which also notices a client gone
+     * @param onClose run once the stream has ended, however it ended
+     */
+    public ChangeStream(Source source, long after, long heartbeatMillis, Runnable onClose) {
+        this.source = source;
+        this.after = after;
+        this.heartbeatMillis = heartbeatMillis;
+        this.onClose = onClose;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public long getAfter() {
+        return after;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    public Runnable getOnClose() {
+        return onClose;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeStream{" +
+                "after=" + after +
+                ", heartbeatMillis=" + heartbeatMillis +
+                '}';
+    }
+}
@@ -0,0 +1,48 @@
+package com.jojos.challenge.json;
+
+import java.util.Arrays;
+
+/**
+ * A response already encoded as json, written as it is, e.g. a {@link Transaction} encoded once by
+ * {@link JsonWriters#encode(Transaction)} and served from a cache from then on.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class EncodedJson {
+
+    private final byte[] bytes;
+    private final String tag;
+
+    /**
+     * @param bytes the json
+     * @param tag the entity tag of the json, without the quotes
+     */
+    public EncodedJson(byte[] bytes, String tag) {
+        this.bytes = bytes;
+        this.tag = tag;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the memory the response takes, roughly
+     */
+    public int size() {
+        // the headers of the two objects and of the array, and the characters of the tag
+        return bytes.length + 2 * tag.length() + 64;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedJson{" +
+                "bytes=" + Arrays.toString(bytes) +
+                ", tag='" + tag + '\'' +
+                '}';
+    }
+}
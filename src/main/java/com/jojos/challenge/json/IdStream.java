@@ -0,0 +1,40 @@
+package com.jojos.challenge.json;
+
+/**
+ * A json list of ids read a page at a time while it's written, e.g.
+ * [10,11,12]
+ * so that a list of millions of ids is never copied in one piece.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class IdStream {
+
+    /**
+     * Where the ids come from, in ascending order
+     */
+    public interface Source {
+        /**
+         * @param from the smallest id to read
+         * @param page where the ids are copied to
+         * @return the number of ids copied, less than the length of the page once there are no more
+         */
+        int read(long from, long[] page);
+    }
+
+    private final Source source;
+
+    public IdStream(Source source) {
+        this.source = source;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "IdStream{" +
+                "source=" + source +
+                '}';
+    }
+}
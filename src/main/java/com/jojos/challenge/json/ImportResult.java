@@ -0,0 +1,45 @@
+package com.jojos.challenge.json;
+
+/**
+ * The json object representing the response to a bulk import, e.g.
+ * { "inserted": 1000, "rejected": 2 }
+ * along with an error message if the import stopped before the end of its input.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class ImportResult {
+
+	private long inserted;
+	private long rejected;
+	private String error;
+
+	public ImportResult() {
+	}
+
+	public ImportResult(long inserted, long rejected, String error) {
+		this.inserted = inserted;
+		this.rejected = rejected;
+		this.error = error;
+	}
+
+	public long getInserted() {
+		return inserted;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "ImportResult{" +
+				"inserted=" + inserted +
+				", rejected=" + rejected +
+				", error='" + error + '\'' +
+				'}';
+	}
+}
@@ -0,0 +1,408 @@
+package com.jojos.challenge.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A reusable buffer the json writers of the hot responses encode into, without building strings or boxing numbers.
+ * A buffer is taken with {@link #open(OutputStream)} and given back with {@link #release()}. A pooled thread keeps
+ * a buffer of its own. A virtual thread, which serves a single request, takes one from a small pool shared by all of
+ * them instead, a couple of buffers for each processor, so that a request doesn't allocate a buffer of its own
+ * unless the pool is empty. A buffer given back to a full pool is dropped.
+ * The buffer is written to the output stream whenever it fills up, so a response of any size goes through the same
+ * few kilobytes.
+ *
+ * Doubles are written with the fewest decimals that read back as the same double. Values too large or too precise
+ * for that, and NaN or infinities, fall back to {@link Double#toString(double)}.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class JsonBuffer {
+
+	private static final int SIZE = 8192;
+	// the most bytes a single number or escaped character takes, checked before writing one
+	private static final int MAX_TOKEN = 32;
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17
+	};
+	// integers up to 2^53 are exact doubles
+	private static final double MAX_EXACT = 9.007199254740992E15;
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+	private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+	private static final long BILLION = 1_000_000_000L;
+
+	// the three digits of 0 to 999, one byte each from the highest
+	private static final int[] TRIPLETS = new int[1000];
+
+	static {
+		for (int i = 0; i < 1000; i++) {
+			TRIPLETS[i] = ('0' + i / 100) << 16 | ('0' + i / 10 % 10) << 8 | ('0' + i % 10);
+		}
+	}
+
+	private static final ThreadLocal<JsonBuffer> buffers = ThreadLocal.withInitial(JsonBuffer::new);
+	// the idle buffers of the virtual threads, a slot each, searched from a slot picked by the thread so threads
+	// rarely contend for one
+	private static final AtomicReferenceArray<JsonBuffer> pool =
+			new AtomicReferenceArray<>(2 * Runtime.getRuntime().availableProcessors());
+	// Thread.isVirtual(), looked up as the application still runs on java 8. Null before java 21
+	private static final MethodHandle IS_VIRTUAL = isVirtual();
+
+	private final byte[] bytes = new byte[SIZE];
+	private final byte[] digits = new byte[20];
+	private int position;
+	private OutputStream output;
+	// whether the buffer goes back to the pool once released, rather than staying with its thread
+	private boolean pooled;
+
+	private JsonBuffer() {
+	}
+
+	/**
+	 * @return the buffer of the current thread, or of the pool on a virtual thread, writing to the given stream until
+	 * it's released
+	 */
+	static JsonBuffer open(OutputStream output) {
+		JsonBuffer buffer = isVirtual(Thread.currentThread()) ? take() : buffers.get();
+		buffer.output = output;
+		buffer.position = 0;
+		return buffer;
+	}
+
+	// an idle buffer of the pool, or a new one if there is none
+	private static JsonBuffer take() {
+		int start = (int) (Thread.currentThread().getId() % pool.length());
+		for (int i = 0; i < pool.length(); i++) {
+			int slot = (start + i) % pool.length();
+			JsonBuffer idle = pool.get(slot);
+			if (idle != null && pool.compareAndSet(slot, idle, null)) {
+				return idle;
+			}
+		}
+		JsonBuffer buffer = new JsonBuffer();
+		buffer.pooled = true;
+		return buffer;
+	}
+
+	/**
+	 * Write whatever is buffered to the stream
+	 */
+	void flush() throws IOException {
+		output.write(bytes, 0, position);
+		position = 0;
+	}
+
+	/**
+	 * Write whatever is buffered and flush the stream, so that it reaches the client now
+	 */
+	void push() throws IOException {
+		flush();
+		output.flush();
+	}
+
+	/**
+	 * Let go of the stream, whether the response has been written or not, giving a buffer of the pool back.
+	 * The buffer isn't used again once released
+	 */
+	void release() {
+		if (output == null) {
+			return;
+		}
+		output = null;
+		position = 0;
+		if (!pooled) {
+			return;
+		}
+		int start = (int) (Thread.currentThread().getId() % pool.length());
+		for (int i = 0; i < pool.length(); i++) {
+			int slot = (start + i) % pool.length();
+			if (pool.get(slot) == null && pool.compareAndSet(slot, null, this)) {
+				return;
+			}
+		}
+	}
+
+	JsonBuffer raw(byte b) throws IOException {
+		ensure(1);
+		bytes[position++] = b;
+		return this;
+	}
+
+	JsonBuffer raw(byte[] b) throws IOException {
+		ensure(b.length);
+		if (b.length > bytes.length) {
+			// too large for the buffer, which has just been flushed
+			output.write(b);
+			return this;
+		}
+		System.arraycopy(b, 0, bytes, position, b.length);
+		position += b.length;
+		return this;
+	}
+
+	/**
+	 * Write a json array of numbers
+	 */
+	JsonBuffer array(long[] values) throws IOException {
+		return raw((byte) '[').elements(values, values.length, true).raw((byte) ']');
+	}
+
+	/**
+	 * Write the first count values as elements of an array that's already open
+	 * @param first whether they are the first elements of the array, which aren't preceded by a comma
+	 */
+	JsonBuffer elements(long[] values, int count, boolean first) throws IOException {
+		int i = 0;
+		if (first && count > 0) {
+			number(values[i++]);
+		}
+		while (i < count) {
+			// as many as surely fit are written without checking the space left before each one
+			int fit = Math.min(count - i, (bytes.length - position) / (MAX_TOKEN + 1));
+			if (fit == 0) {
+				flush();
+				continue;
+			}
+			int at = position;
+			for (int end = i + fit; i < end; i++) {
+				bytes[at++] = ',';
+				at = digits(bytes, at, values[i]);
+			}
+			position = at;
+		}
+		return this;
+	}
+
+	JsonBuffer number(long value) throws IOException {
+		ensure(MAX_TOKEN);
+		position = digits(bytes, position, value);
+		return this;
+	}
+
+	// write a long at the position, returning the position after it. The digits are written from the highest, three
+	// at a time, in int arithmetic on at most three pieces of nine digits
+	private static int digits(byte[] bytes, int position, long value) {
+		if (value == Long.MIN_VALUE) {
+			System.arraycopy(MIN_LONG, 0, bytes, position, MIN_LONG.length);
+			return position + MIN_LONG.length;
+		}
+		if (value < 0) {
+			bytes[position++] = '-';
+			value = -value;
+		}
+		if (value <= Integer.MAX_VALUE) {
+			return digits(bytes, position, (int) value);
+		}
+		long high = value / BILLION;
+		if (high <= Integer.MAX_VALUE) {
+			position = digits(bytes, position, (int) high);
+		} else {
+			int top = (int) (high / BILLION);
+			position = digits(bytes, position, top);
+			position = nineDigits(bytes, position, (int) (high - top * BILLION));
+		}
+		return nineDigits(bytes, position, (int) (value - high * BILLION));
+	}
+
+	// write a non-negative int without leading zeros
+	private static int digits(byte[] bytes, int position, int value) {
+		if (value < 1000) {
+			return leading(bytes, position, value);
+		}
+		if (value < 1_000_000) {
+			int thousands = value / 1000;
+			position = leading(bytes, position, thousands);
+			return triplet(bytes, position, value - thousands * 1000);
+		}
+		if (value < BILLION) {
+			int thousands = value / 1000;
+			int millions = thousands / 1000;
+			position = leading(bytes, position, millions);
+			position = triplet(bytes, position, thousands - millions * 1000);
+			return triplet(bytes, position, value - thousands * 1000);
+		}
+		int billions = (int) (value / BILLION);
+		position = leading(bytes, position, billions);
+		return nineDigits(bytes, position, (int) (value - billions * BILLION));
+	}
+
+	// write an int below a thousand without leading zeros
+	private static int leading(byte[] bytes, int position, int value) {
+		int digits = TRIPLETS[value];
+		if (value >= 100) {
+			bytes[position++] = (byte) (digits >> 16);
+		}
+		if (value >= 10) {
+			bytes[position++] = (byte) (digits >> 8);
+		}
+		bytes[position] = (byte) digits;
+		return position + 1;
+	}
+
+	// write the nine digits of an int below a billion, with its leading zeros
+	private static int nineDigits(byte[] bytes, int position, int value) {
+		int thousands = value / 1000;
+		int millions = thousands / 1000;
+		position = triplet(bytes, position, millions);
+		position = triplet(bytes, position, thousands - millions * 1000);
+		return triplet(bytes, position, value - thousands * 1000);
+	}
+
+	private static int triplet(byte[] bytes, int position, int value) {
+		int digits = TRIPLETS[value];
+		bytes[position] = (byte) (digits >> 16);
+		bytes[position + 1] = (byte) (digits >> 8);
+		bytes[position + 2] = (byte) digits;
+		return position + 3;
+	}
+
+	JsonBuffer number(double value) throws IOException {
+		ensure(MAX_TOKEN);
+		if (Math.abs(value) < MAX_EXACT) {
+			if (value == Math.rint(value)) {
+				if (value == 0d && Double.doubleToRawLongBits(value) != 0L) {
+					bytes[position++] = '-';
+				}
+				number((long) value);
+				bytes[position++] = '.';
+				bytes[position++] = '0';
+				return this;
+			}
+			// the quotient of two exact doubles is correctly rounded, so it's what parsing the decimal would give
+			for (int scale = 1; scale < POWERS_OF_TEN.length; scale++) {
+				double scaled = Math.rint(value * POWERS_OF_TEN[scale]);
+				if (Math.abs(scaled) >= MAX_EXACT) {
+					break;
+				}
+				if (scaled / POWERS_OF_TEN[scale] == value) {
+					return decimal((long) scaled, scale);
+				}
+			}
+		}
+		return ascii(Double.toString(value));
+	}
+
+	/**
+	 * Write a json string, or null
+	 */
+	JsonBuffer string(String value) throws IOException {
+		if (value == null) {
+			return raw(NULL);
+		}
+		raw((byte) '"');
+		for (int i = 0; i < value.length(); i++) {
+			ensure(MAX_TOKEN);
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				bytes[position++] = '\\';
+				bytes[position++] = (byte) c;
+			} else if (c < 0x20) {
+				escapeControl(c);
+			} else if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xc0 | c >> 6);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+				bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+			} else if (Character.isSurrogate(c)) {
+				// a lone surrogate can't be encoded
+				bytes[position++] = '?';
+			} else {
+				bytes[position++] = (byte) (0xe0 | c >> 12);
+				bytes[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		return raw((byte) '"');
+	}
+
+	private void escapeControl(char c) {
+		bytes[position++] = '\\';
+		switch (c) {
+			case '\n':
+				bytes[position++] = 'n';
+				break;
+			case '\r':
+				bytes[position++] = 'r';
+				break;
+			case '\t':
+				bytes[position++] = 't';
+				break;
+			case '\b':
+				bytes[position++] = 'b';
+				break;
+			case '\f':
+				bytes[position++] = 'f';
+				break;
+			default:
+				bytes[position++] = 'u';
+				bytes[position++] = '0';
+				bytes[position++] = '0';
+				bytes[position++] = HEX[c >> 4];
+				bytes[position++] = HEX[c & 0xf];
+		}
+	}
+
+	// write unscaled / 10^scale, which has no trailing zeros since the scale is the smallest that represents it
+	private JsonBuffer decimal(long unscaled, int scale) {
+		if (unscaled < 0) {
+			bytes[position++] = '-';
+			unscaled = -unscaled;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + unscaled % 10);
+			unscaled /= 10;
+		} while (unscaled != 0 || count <= scale);
+		while (count > 0) {
+			if (count == scale) {
+				bytes[position++] = '.';
+			}
+			bytes[position++] = digits[--count];
+		}
+		return this;
+	}
+
+	private static MethodHandle isVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	private JsonBuffer ascii(String value) throws IOException {
+		ensure(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			bytes[position++] = (byte) value.charAt(i);
+		}
+		return this;
+	}
+
+	private void ensure(int length) throws IOException {
+		if (position + length > bytes.length) {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package com.jojos.challenge.json;
+
+import org.glassfish.jersey.server.ServerProperties;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hand-written json for the responses served most often: a {@link Sum}, a {@link Transaction} and the ids of a type,
+ * whole or as an {@link IdStream}, and for the events of a {@link ChangeStream}. An {@link EncodedJson} is written as it
+ * is.
+ * They have a fixed shape, so they're encoded straight into a reusable {@link JsonBuffer} instead of going through
+ * the reflective binding of Jackson. The output is the json Jackson would produce, with the numbers possibly
+ * written differently but reading back the same.
+ *
+ * Being more specific than the Jackson provider, which writes any object, these writers take precedence for their
+ * types once registered.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class JsonWriters {
+
+	/**
+	 * The writers, for registering with the application
+	 */
+	public static final Class<?>[] ALL = {SumWriter.class, TransactionWriter.class, IdsWriter.class, IdStreamWriter.class,
+			ChangeStreamWriter.class, EncodedJsonWriter.class};
+
+	private JsonWriters() {
+	}
+
+	/**
+	 * @return the json of a transaction, as the {@link TransactionWriter} writes it
+	 */
+	public static byte[] encode(Transaction transaction) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(96);
+		JsonBuffer json = JsonBuffer.open(output);
+		try {
+			TransactionWriter.writeTransaction(transaction, json);
+			json.flush();
+		} catch (IOException e) {
+			// a byte array doesn't fail
+			throw new UncheckedIOException(e);
+		} finally {
+			json.release();
+		}
+		return output.toByteArray();
+	}
+
+	static abstract class JsonWriter<T> implements MessageBodyWriter<T> {
+		private final Class<T> type;
+
+		JsonWriter(Class<T> type) {
+			this.type = type;
+		}
+
+		@Override
+		public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+			return this.type == type;
+		}
+
+		@Override
+		public long getSize(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+			return -1;
+		}
+
+		@Override
+		public void writeTo(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+		                    MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+			JsonBuffer json = JsonBuffer.open(entityStream);
+			try {
+				write(value, json);
+				json.flush();
+			} finally {
+				json.release();
+			}
+		}
+
+		abstract void write(T value, JsonBuffer json) throws IOException;
+	}
+
+	/**
+	 * {"sum":double}
+	 */
+	@Produces(MediaType.APPLICATION_JSON)
+	public static class SumWriter extends JsonWriter<Sum> {
+		private static final byte[] SUM = bytes("{\"sum\":");
+
+		public SumWriter() {
+			super(Sum.class);
+		}
+
+		@Override
+		void write(Sum sum, JsonBuffer json) throws IOException {
+			json.raw(SUM).number(sum.getSum()).raw((byte) '}');
+		}
+	}
+
+	/**
+	 * {"id":long,"amount":double,"type":string,"parent_id":long}
+	 */
+	@Produces(MediaType.APPLICATION_JSON)
+	public static class TransactionWriter extends JsonWriter<Transaction> {
+		private static final byte[] ID = bytes("{\"id\":");
+		private static final byte[] AMOUNT = bytes(",\"amount\":");
+		private static final byte[] TYPE = bytes(",\"type\":");
+		private static final byte[] PARENT_ID = bytes(",\"parent_id\":");
+
+		public TransactionWriter() {
+			super(Transaction.class);
+		}
+
+		@Override
+		void write(Transaction transaction, JsonBuffer json) throws IOException {
+			writeTransaction(transaction, json);
+		}
+
+		static void writeTransaction(Transaction transaction, JsonBuffer json) throws IOException {
+			json.raw(ID).number(transaction.getId())
+					.raw(AMOUNT).number(transaction.getAmount())
+					.raw(TYPE).string(transaction.getType())
+					.raw(PARENT_ID).number(transaction.getParentId())
+					.raw((byte) '}');
+		}
+	}
+
+	/**
+	 * whatever json has already been encoded
+	 */
+	@Produces(MediaType.APPLICATION_JSON)
+	public static class EncodedJsonWriter extends JsonWriter<EncodedJson> {
+
+		public EncodedJsonWriter() {
+			super(EncodedJson.class);
+		}
+
+		@Override
+		void write(EncodedJson encoded, JsonBuffer json) throws IOException {
+			json.raw(encoded.getBytes());
+		}
+	}
+
+	/**
+	 * [long, long, ...]
+	 */
+	@Produces(MediaType.APPLICATION_JSON)
+	public static class IdsWriter extends JsonWriter<long[]> {
+
+		public IdsWriter() {
+			super(long[].class);
+		}
+
+		@Override
+		void write(long[] ids, JsonBuffer json) throws IOException {
+			json.array(ids);
+		}
+	}
+
+	/**
+	 * [long, long, ...] read a page at a time, each page written out before the next one is read
+	 */
+	@Produces(MediaType.APPLICATION_JSON)
+	public static class IdStreamWriter extends JsonWriter<IdStream> {
+		static final int PAGE_SIZE = 1024;
+
+		public IdStreamWriter() {
+			super(IdStream.class);
+		}
+
+		@Override
+		void write(IdStream ids, JsonBuffer json) throws IOException {
+			long[] page = new long[PAGE_SIZE];
+			long from = Long.MIN_VALUE;
+			boolean first = true;
+			json.raw((byte) '[');
+			while (true) {
+				int count = ids.getSource().read(from, page);
+				json.elements(page, count, first);
+				if (count < page.length || page[count - 1] == Long.MAX_VALUE) {
+					break;
+				}
+				from = page[count - 1] + 1;
+				first = false;
+			}
+			json.raw((byte) ']');
+		}
+	}
+
+	/**
+	 * event: insert, data: {"seq":long,"id":long,"amount":double,"type":string,"parent_id":long}
+	 * and event: sum, data: {"seq":long,"id":long,"sum":double}
+	 * read a chunk at a time until the client goes away, each chunk pushed to the client before the next one is read
+	 */
+	@Produces(ChangeStreamWriter.EVENT_STREAM)
+	public static class ChangeStreamWriter extends JsonWriter<ChangeStream> {
+		public static final String EVENT_STREAM = "text/event-stream";
+		static final int CHUNK_SIZE = 1024;
+		private static final byte[] INSERT = bytes("event: insert\ndata: {\"seq\":");
+		private static final byte[] SUM = bytes("event: sum\ndata: {\"seq\":");
+		private static final byte[] ID = bytes(",\"id\":");
+		private static final byte[] AMOUNT = bytes(",\"amount\":");
+		private static final byte[] TYPE = bytes(",\"type\":");
+		private static final byte[] PARENT_ID = bytes(",\"parent_id\":");
+		private static final byte[] SUM_VALUE = bytes(",\"sum\":");
+		private static final byte[] END = bytes("}\n\n");
+		private static final byte[] END_WITH_ID = bytes("}\nid: ");
+		private static final byte[] BLANK_LINE = bytes("\n\n");
+		private static final byte[] HEARTBEAT = bytes(": heartbeat\n\n");
+		// the default size of the buffer jersey holds a response back in to compute its Content-Length
+		private static final int CONTENT_LENGTH_BUFFER = 8192;
+
+		@Context
+		private Configuration configuration;
+
+		public ChangeStreamWriter() {
+			super(ChangeStream.class);
+		}
+
+		@Override
+		void write(ChangeStream changes, JsonBuffer json) throws IOException {
+			try {
+				// nothing reaches the client, not even the headers, until jersey's buffer overflows, whatever is flushed,
+				// so the stream opens with a comment that overflows it
+				json.raw((byte) ':');
+				for (int i = contentLengthBuffer(); i >= 0; i--) {
+					json.raw((byte) ' ');
+				}
+				json.raw(BLANK_LINE).push();
+				stream(changes, json);
+			} finally {
+				changes.getOnClose().run();
+			}
+		}
+
+		private int contentLengthBuffer() {
+			Object size = configuration == null ? null : configuration.getProperty(ServerProperties.OUTBOUND_CONTENT_LENGTH_BUFFER);
+			return size == null ? CONTENT_LENGTH_BUFFER : Integer.parseInt(size.toString());
+		}
+
+		private static void stream(ChangeStream changes, JsonBuffer json) throws IOException {
+			long[] ids = new long[CHUNK_SIZE];
+			double[] amounts = new double[CHUNK_SIZE];
+			long[] parentIds = new long[CHUNK_SIZE];
+			String[] types = new String[CHUNK_SIZE];
+			Sums sums = new Sums();
+			int position = (int) changes.getAfter();
+			while (true) {
+				int count;
+				try {
+					count = changes.getSource().read(position, ids, amounts, parentIds, types, changes.getHeartbeatMillis());
+				} catch (InterruptedException e) {
+					// the server is stopping
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (count == 0) {
+					// also fails once the client has gone away
+					json.raw(HEARTBEAT).push();
+					continue;
+				}
+				sums.count = 0;
+				changes.getSource().sums(position, count, sums);
+				long sequence = position + count;
+				for (int i = 0; i < count; i++) {
+					json.raw(INSERT).number(position + i + 1L).raw(ID).number(ids[i])
+							.raw(AMOUNT).number(amounts[i])
+							.raw(TYPE).string(types[i])
+							.raw(PARENT_ID).number(parentIds[i]);
+					end(json, sums.count == 0 && i == count - 1, sequence);
+				}
+				for (int i = 0; i < sums.count; i++) {
+					json.raw(SUM).number(sequence).raw(ID).number(sums.ids[i]).raw(SUM_VALUE).number(sums.sums[i]);
+					end(json, i == sums.count - 1, sequence);
+				}
+				json.push();
+				position += count;
+			}
+		}
+
+		// the last event of a chunk is the one a client resumes after
+		private static void end(JsonBuffer json, boolean last, long sequence) throws IOException {
+			if (last) {
+				json.raw(END_WITH_ID).number(sequence).raw(BLANK_LINE);
+			} else {
+				json.raw(END);
+			}
+		}
+
+		// the sums of a chunk, copied out of the lock they're read under before they're written
+		private static class Sums implements ChangeStream.SumSink {
+			long[] ids = new long[CHUNK_SIZE];
+			double[] sums = new double[CHUNK_SIZE];
+			int count;
+
+			@Override
+			public void sum(long id, double sum) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+					sums = Arrays.copyOf(sums, count * 2);
+				}
+				ids[count] = id;
+				sums[count++] = sum;
+			}
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
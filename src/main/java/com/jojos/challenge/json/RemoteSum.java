@@ -0,0 +1,59 @@
+package com.jojos.challenge.json;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The json object a node of the cluster pushes to the owner of a parent stored elsewhere, carrying the sum of the
+ * subtree of one of its children, e.g.
+ * { "id": 12, "parent_id": 10, "sum": 35000.0, "origin_id": 12 }
+ * The sum is the whole sum of the subtree rather than a change of it, so pushing it again is harmless.
+ * The origin is the root of the fragment whose change set off the push, which is carried on by the pushes it causes
+ * further up the tree, so a push that comes back to the fragment it set off from is told apart as a cycle.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class RemoteSum {
+
+	private long id;
+	@JsonProperty("parent_id")
+	private long parentId;
+	private double sum;
+	@JsonProperty("origin_id")
+	private long originId;
+
+	public RemoteSum() {
+	}
+
+	public RemoteSum(long id, long parentId, double sum, long originId) {
+		this.id = id;
+		this.parentId = parentId;
+		this.sum = sum;
+		this.originId = originId;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getParentId() {
+		return parentId;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public long getOriginId() {
+		return originId;
+	}
+
+	@Override
+	public String toString() {
+		return "RemoteSum{" +
+				"id=" + id +
+				", parent_id=" + parentId +
+				", sum=" + sum +
+				", origin_id=" + originId +
+				'}';
+	}
+}
@@ -1,11 +1,7 @@
 package com.jojos.challenge.json;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Class/json object that represents the transaction data.
  *
@@ -20,9 +16,6 @@ public class Transaction {
 	@JsonProperty("parent_id")
 	private long parentId;
 
-	@JsonIgnore
-	private Set<Long> children = new HashSet<>();
-
 	public Transaction() {
 	}
 
@@ -48,18 +41,10 @@ public class Transaction {
 		return parentId;
 	}
 
-	public Set<Long> getChildren() {
-		return children;
-	}
-
 	public void setId(long id) {
 		this.id = id;
 	}
 
-	public void addChild(long childId) {
-		children.add(childId);
-	}
-
 	@Override
 	public String toString() {
 		return "Transaction{" +
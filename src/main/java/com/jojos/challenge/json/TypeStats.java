@@ -0,0 +1,66 @@
+package com.jojos.challenge.json;
+
+/**
+ * The json object representing the aggregates of the transactions of a type, e.g.
+ * { "type": "cars", "count": 2, "sum": 15000.0, "min": 5000.0, "max": 10000.0, "average": 7500.0 }
+ * The min, max and average are null while there are no transactions of the type.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class TypeStats {
+
+	private String type;
+	private long count;
+	private double sum;
+	private Double min;
+	private Double max;
+	private Double average;
+
+	public TypeStats() {
+	}
+
+	public TypeStats(String type, long count, double sum, Double min, Double max) {
+		this.type = type;
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		this.average = count == 0 ? null : sum / count;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public Double getMin() {
+		return min;
+	}
+
+	public Double getMax() {
+		return max;
+	}
+
+	public Double getAverage() {
+		return average;
+	}
+
+	@Override
+	public String toString() {
+		return "TypeStats{" +
+				"type='" + type + '\'' +
+				", count=" + count +
+				", sum=" + sum +
+				", min=" + min +
+				", max=" + max +
+				", average=" + average +
+				'}';
+	}
+}
@@ -0,0 +1,78 @@
+package com.jojos.challenge.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets from a microsecond to ten seconds, exposed as a Prometheus histogram.
+ *
+ * Every bucket is a {@link LongAdder}, so concurrent recording doesn't contend on a single counter and never
+ * allocates. The buckets only hold their own observations, they are accumulated when the histogram is written.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LatencyHistogram {
+
+	// the upper bounds of the buckets in nanoseconds, the last bucket is unbounded
+	private static final long[] BOUNDS = {
+			1_000L, 2_500L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+			1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L,
+			250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+	};
+	private static final String[] BOUND_LABELS = new String[BOUNDS.length];
+
+	static {
+		for (int i = 0; i < BOUNDS.length; i++) {
+			BOUND_LABELS[i] = Double.toString(BOUNDS[i] / 1e9);
+		}
+	}
+
+	private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param nanos the observed latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		int bucket = 0;
+		while (bucket < BOUNDS.length && nanos > BOUNDS[bucket]) {
+			bucket++;
+		}
+		buckets[bucket].increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * @return the number of observations
+	 */
+	public long count() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Write the buckets, the sum and the count of the histogram, in seconds
+	 * @param name the name of the metric
+	 * @param labels the labels of the histogram without braces, e.g. {@code endpoint="getSum"}, or an empty string
+	 */
+	void write(StringBuilder output, String name, String labels) {
+		String separator = labels.isEmpty() ? "" : ",";
+		long cumulative = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			cumulative += buckets[i].sum();
+			output.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+					.append(i < BOUNDS.length ? BOUND_LABELS[i] : "+Inf").append("\"} ").append(cumulative).append('\n');
+		}
+		String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+		output.append(name).append("_sum").append(braces).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+		output.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+	}
+}
@@ -0,0 +1,174 @@
+package com.jojos.challenge.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the service, written in the Prometheus text format by {@link #scrape()}.
+ *
+ * Recording is cheap enough to be always on: counters and histogram buckets are {@link LongAdder}s, so threads
+ * recording concurrently don't contend, and nothing is allocated once an endpoint has been seen. Gauges are computed
+ * when the metrics are scraped.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Metrics {
+
+	public final static Metrics INSTANCE = new Metrics();
+
+	/**
+	 * A value sampled when the metrics are scraped
+	 */
+	public interface Gauge {
+		double value();
+	}
+
+	/**
+	 * The requests, errors and latency of an endpoint
+	 */
+	public static class Endpoint {
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder clientErrors = new LongAdder();
+		private final LongAdder serverErrors = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/**
+		 * @param status the http status of the response
+		 * @param nanos the time it took to serve the request
+		 */
+		public void record(int status, long nanos) {
+			requests.increment();
+			if (status >= 500) {
+				serverErrors.increment();
+			} else if (status >= 400) {
+				clientErrors.increment();
+			}
+			latency.record(nanos);
+		}
+	}
+
+	// the time spent waiting for the locks of the transaction handler, and holding them: the stripe locks taken by
+	// the readers and the write lock taken by the inserts
+	public final LatencyHistogram readLockWait = new LatencyHistogram();
+	public final LatencyHistogram readLockHold = new LatencyHistogram();
+	public final LatencyHistogram writeLockWait = new LatencyHistogram();
+	public final LatencyHistogram writeLockHold = new LatencyHistogram();
+
+	public final LongAdder requestsRejected = new LongAdder();
+	public final LongAdder insertsStored = new LongAdder();
+	public final LongAdder insertsRejected = new LongAdder();
+	public final LongAdder sumsFound = new LongAdder();
+	public final LongAdder sumsMissing = new LongAdder();
+	// the writes refused by the admission control, by the reason they were refused
+	public final LongAdder admissionHeap = new LongAdder();
+	public final LongAdder admissionStore = new LongAdder();
+	public final LongAdder admissionInflight = new LongAdder();
+	public final LongAdder admissionRate = new LongAdder();
+	public final LongAdder admissionClientRate = new LongAdder();
+	public final LongAdder responseCacheHits = new LongAdder();
+	public final LongAdder responseCacheMisses = new LongAdder();
+	public final LongAdder notModified = new LongAdder();
+
+	private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private final Map<String, Gauge> gauges = new TreeMap<>();
+	private final Map<String, String> gaugeHelp = new TreeMap<>();
+
+	/**
+	 * @param name the name of the endpoint, used as the value of its endpoint label
+	 * @return the metrics of the endpoint, created on first use
+	 */
+	public Endpoint endpoint(String name) {
+		Endpoint endpoint = endpoints.get(name);
+		return endpoint != null ? endpoint : endpoints.computeIfAbsent(name, key -> new Endpoint());
+	}
+
+	/**
+	 * Register a gauge, replacing any gauge with the same name
+	 * @param name the name of the metric
+	 * @param help the description of the metric
+	 */
+	public synchronized void gauge(String name, String help, Gauge gauge) {
+		gauges.put(name, gauge);
+		gaugeHelp.put(name, help);
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format, version 0.0.4
+	 */
+	public String scrape() {
+		StringBuilder output = new StringBuilder(16384);
+		Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+
+		header(output, "transactions_http_requests_total", "counter", "Requests served, by endpoint.");
+		sorted.forEach((name, endpoint) -> sample(output, "transactions_http_requests_total",
+				"endpoint=\"" + name + "\"", endpoint.requests.sum()));
+		header(output, "transactions_http_errors_total", "counter", "Requests answered with an error status, by endpoint and status class.");
+		sorted.forEach((name, endpoint) -> {
+			sample(output, "transactions_http_errors_total", "endpoint=\"" + name + "\",status=\"4xx\"", endpoint.clientErrors.sum());
+			sample(output, "transactions_http_errors_total", "endpoint=\"" + name + "\",status=\"5xx\"", endpoint.serverErrors.sum());
+		});
+		header(output, "transactions_http_request_duration_seconds", "histogram", "Time to serve a request, by endpoint.");
+		sorted.forEach((name, endpoint) -> endpoint.latency.write(output,
+				"transactions_http_request_duration_seconds", "endpoint=\"" + name + "\""));
+
+		header(output, "transactions_http_rejected_total", "counter", "Requests answered with 503 because the executor was full.");
+		sample(output, "transactions_http_rejected_total", "", requestsRejected.sum());
+
+		header(output, "transactions_admission_rejected_total", "counter", "Writes refused by the admission control, by reason.");
+		sample(output, "transactions_admission_rejected_total", "reason=\"heap\"", admissionHeap.sum());
+		sample(output, "transactions_admission_rejected_total", "reason=\"store\"", admissionStore.sum());
+		sample(output, "transactions_admission_rejected_total", "reason=\"inflight\"", admissionInflight.sum());
+		sample(output, "transactions_admission_rejected_total", "reason=\"rate\"", admissionRate.sum());
+		sample(output, "transactions_admission_rejected_total", "reason=\"client_rate\"", admissionClientRate.sum());
+
+		header(output, "transactions_response_cache_lookups_total", "counter", "Lookups of encoded transactions, by result.");
+		sample(output, "transactions_response_cache_lookups_total", "result=\"hit\"", responseCacheHits.sum());
+		sample(output, "transactions_response_cache_lookups_total", "result=\"miss\"", responseCacheMisses.sum());
+		header(output, "transactions_http_not_modified_total", "counter", "Conditional requests answered with 304.");
+		sample(output, "transactions_http_not_modified_total", "", notModified.sum());
+
+		header(output, "transactions_lock_wait_seconds", "histogram", "Time spent waiting for the transaction locks, the stripe locks of the readers and the write lock of the inserts.");
+		readLockWait.write(output, "transactions_lock_wait_seconds", "lock=\"read\"");
+		writeLockWait.write(output, "transactions_lock_wait_seconds", "lock=\"write\"");
+		header(output, "transactions_lock_hold_seconds", "histogram", "Time the transaction locks are held, the stripe locks of the readers and the write lock of the inserts.");
+		readLockHold.write(output, "transactions_lock_hold_seconds", "lock=\"read\"");
+		writeLockHold.write(output, "transactions_lock_hold_seconds", "lock=\"write\"");
+
+		header(output, "transactions_inserts_total", "counter", "Transactions inserted, by result.");
+		sample(output, "transactions_inserts_total", "result=\"stored\"", insertsStored.sum());
+		sample(output, "transactions_inserts_total", "result=\"rejected\"", insertsRejected.sum());
+		header(output, "transactions_sum_lookups_total", "counter", "Sum lookups, by whether the transaction exists.");
+		sample(output, "transactions_sum_lookups_total", "result=\"found\"", sumsFound.sum());
+		sample(output, "transactions_sum_lookups_total", "result=\"missing\"", sumsMissing.sum());
+
+		synchronized (this) {
+			for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+				header(output, gauge.getKey(), "gauge", gaugeHelp.get(gauge.getKey()));
+				sample(output, gauge.getKey(), "", gauge.getValue().value());
+			}
+		}
+		return output.toString();
+	}
+
+	private static void header(StringBuilder output, String name, String type, String help) {
+		output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder output, String name, String labels, double value) {
+		output.append(name);
+		if (!labels.isEmpty()) {
+			output.append('{').append(labels).append('}');
+		}
+		output.append(' ');
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			output.append((long) value);
+		} else {
+			output.append(value);
+		}
+		output.append('\n');
+	}
+}
@@ -0,0 +1,210 @@
+package com.jojos.challenge.persist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary image of the stored transactions, taken at a sequence of the {@link WriteAheadLog} so that a
+ * restart only has to load the image and replay the tail of the log.
+ *
+ * The image holds the type names in type ordinal order followed by the records in insertion order, each record
+ * being its id, amount, parent_id and type ordinal. Everything else (the id index, the type index, the
+ * parent-child links and the maintained sums) is derived from the records in linear time when the image is loaded.
+ * The file ends with the CRC32 of its contents.
+ *
+ * An image is written to a temporary file which is renamed to {@code snapshot-SEQUENCE.bin} once it's complete and
+ * forced to disk, so a crash while writing never leaves a partial image behind.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Snapshot {
+
+	private static final int MAGIC = 0x54534e50;
+	private static final int VERSION = 1;
+	private static final String PREFIX = "snapshot-";
+	private static final String SUFFIX = ".bin";
+	private static final int RECORD_SIZE = 28;
+	// records are encoded and decoded this many at a time
+	private static final int BLOCK_RECORDS = 4096;
+
+	/**
+	 * Receives the contents of an image while it's loaded
+	 */
+	public interface Loader {
+		void type(String type);
+
+		void record(long id, double amount, long parentId, int type);
+	}
+
+	/**
+	 * Writes an image. The types must be written before the records.
+	 */
+	public static class Writer implements Closeable {
+		private final Path directory;
+		private final Path temporary;
+		private final long sequence;
+		private final FileOutputStream file;
+		private final CheckedOutputStream checked;
+		private final DataOutputStream output;
+		private final ByteBuffer block = ByteBuffer.allocate(BLOCK_RECORDS * RECORD_SIZE);
+		private boolean committed;
+
+		private Writer(Path directory, long sequence, int typeCount, int recordCount) throws IOException {
+			this.directory = directory;
+			this.sequence = sequence;
+			temporary = directory.resolve(fileName(sequence) + ".tmp");
+			file = new FileOutputStream(temporary.toFile());
+			checked = new CheckedOutputStream(file, new CRC32());
+			output = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(sequence);
+			output.writeInt(typeCount);
+			output.writeInt(recordCount);
+		}
+
+		public void writeType(String type) throws IOException {
+			output.writeBoolean(type != null);
+			if (type != null) {
+				output.writeUTF(type);
+			}
+		}
+
+		public void writeRecord(long id, double amount, long parentId, int type) throws IOException {
+			if (!block.hasRemaining()) {
+				writeBlock();
+			}
+			block.putLong(id).putDouble(amount).putLong(parentId).putInt(type);
+		}
+
+		/**
+		 * Force the image to disk, make it the latest one and delete the older ones
+		 * @return the size of the image in bytes
+		 */
+		public long commit() throws IOException {
+			writeBlock();
+			output.flush();
+			output.writeInt((int) checked.getChecksum().getValue());
+			output.flush();
+			file.getFD().sync();
+			output.close();
+			Path target = directory.resolve(fileName(sequence));
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			committed = true;
+			for (Path older : list(directory)) {
+				if (sequence(older) < sequence) {
+					Files.deleteIfExists(older);
+				}
+			}
+			return Files.size(target);
+		}
+
+		private void writeBlock() throws IOException {
+			output.write(block.array(), 0, block.position());
+			block.clear();
+		}
+
+		/**
+		 * Discard the image if it hasn't been committed
+		 */
+		@Override
+		public void close() throws IOException {
+			if (!committed) {
+				output.close();
+				Files.deleteIfExists(temporary);
+			}
+		}
+	}
+
+	/**
+	 * Start writing an image in the given directory
+	 * @param sequence the sequence of the first transaction of the log that is not part of the image
+	 */
+	public static Writer write(Path directory, long sequence, int typeCount, int recordCount) throws IOException {
+		Files.createDirectories(directory);
+		return new Writer(directory, sequence, typeCount, recordCount);
+	}
+
+	/**
+	 * @return the most recent image in the directory, or null if there is none
+	 */
+	public static Path latest(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return null;
+		}
+		List<Path> snapshots = list(directory);
+		return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+	}
+
+	/**
+	 * Load an image
+	 * @param file the image
+	 * @param loader receives the types and then the records of the image
+	 * @return the sequence of the first transaction of the log that is not part of the image
+	 * @throws IOException if the image can't be read or is corrupt
+	 */
+	public static long read(Path file, Loader loader) throws IOException {
+		try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32());
+		     DataInputStream input = new DataInputStream(checked)) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException(file + " is not a snapshot of version " + VERSION);
+			}
+			long sequence = input.readLong();
+			int typeCount = input.readInt();
+			int recordCount = input.readInt();
+			for (int i = 0; i < typeCount; i++) {
+				loader.type(input.readBoolean() ? input.readUTF() : null);
+			}
+			byte[] block = new byte[BLOCK_RECORDS * RECORD_SIZE];
+			for (int read = 0; read < recordCount; ) {
+				int records = Math.min(BLOCK_RECORDS, recordCount - read);
+				input.readFully(block, 0, records * RECORD_SIZE);
+				ByteBuffer buffer = ByteBuffer.wrap(block, 0, records * RECORD_SIZE);
+				for (int i = 0; i < records; i++) {
+					loader.record(buffer.getLong(), buffer.getDouble(), buffer.getLong(), buffer.getInt());
+				}
+				read += records;
+			}
+			int actual = (int) checked.getChecksum().getValue();
+			if (input.readInt() != actual) {
+				throw new IOException(file + " is corrupt, its checksum doesn't match");
+			}
+			return sequence;
+		}
+	}
+
+	private static List<Path> list(Path directory) throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			stream.forEach(snapshots::add);
+		}
+		// the names are zero padded, so the lexicographic order is the order of the snapshots
+		Collections.sort(snapshots);
+		return snapshots;
+	}
+
+	private static String fileName(long sequence) {
+		return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+	}
+
+	private static long sequence(Path snapshot) {
+		String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
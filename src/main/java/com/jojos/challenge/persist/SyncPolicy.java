@@ -0,0 +1,30 @@
+package com.jojos.challenge.persist;
+
+/**
+ * When the {@link WriteAheadLog} forces what it has written to the storage device.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public enum SyncPolicy {
+
+	/**
+	 * An insert is acknowledged only after it has been forced to disk. Concurrent inserts share a single fsync.
+	 */
+	ALWAYS,
+
+	/**
+	 * An insert is acknowledged once it has been handed to the log. The log is forced to disk every N milliseconds,
+	 * so a crash of the machine loses at most the last interval.
+	 */
+	INTERVAL,
+
+	/**
+	 * An insert is acknowledged once it has been written to the file. The operating system decides when it reaches
+	 * the disk, so only a crash of the machine may lose it.
+	 */
+	OS;
+
+	public static SyncPolicy fromString(String policy) {
+		return valueOf(policy.trim().toUpperCase());
+	}
+}
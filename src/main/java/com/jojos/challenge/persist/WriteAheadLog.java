@@ -0,0 +1,426 @@
+package com.jojos.challenge.persist;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every inserted transaction, written before the insert is acknowledged so that the
+ * in-memory state can be rebuilt after a restart.
+ *
+ * The log is a sequence of segment files in a directory, each named after the sequence number of its first record.
+ * A new segment is started by {@link #roll()}, and the segments that a snapshot has made obsolete are deleted by
+ * {@link #truncate(long)}.
+ * A record is framed as its payload length and the CRC32 of the payload, followed by the payload itself:
+ * id, amount, parent_id and the UTF-8 type (a length of -1 meaning no type). A torn record at the end of the log,
+ * left behind by a crash in the middle of a write, is detected by its frame and cut off on startup.
+ *
+ * Appending only copies the record to an in-memory buffer, so it can be done while the caller holds its own lock
+ * and the order of the log is the order of the inserts. The buffer is written with NIO {@link FileChannel} writes
+ * and forced to disk according to the {@link SyncPolicy}. Forcing is a group commit: one thread writes and forces
+ * everything appended so far, while the threads arriving meanwhile wait for it and then find their records
+ * already durable, so concurrent inserts share a single fsync.
+ * A write or a force that fails leaves the file in an unknown state, so the log fails with it: every later append
+ * and wait is refused with the same error rather than written after a hole.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int FRAME_SIZE = 8;
+	private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+	// above this many pending bytes an acknowledged write goes to the file even if it doesn't have to be forced
+	private static final int FLUSH_THRESHOLD = 1 << 20;
+
+	/**
+	 * Receives the records of the log while it's replayed
+	 */
+	public interface Replayer {
+		void apply(long sequence, long id, double amount, long parentId, String type);
+	}
+
+	private final Path directory;
+	private final SyncPolicy policy;
+	private final ScheduledExecutorService syncExecutor;
+
+	// guarded by appendLock: the records appended but not yet written, and the sequence of the next record
+	private final Object appendLock = new Object();
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private long nextSequence;
+
+	// guarded by flushLock: the buffer the previous flush has written, reused by the next one, and the open segment
+	private final Object flushLock = new Object();
+	private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+	private FileChannel channel;
+
+	// the number of records written to the file, and the number of records forced to disk
+	private volatile long writtenSequence;
+	private volatile long durableSequence;
+	// the error the log has failed with, if it has
+	private volatile IOException failure;
+
+	/**
+	 * Open the log in the given directory, creating it if it doesn't exist. A torn record at the end of the log
+	 * is cut off, and new records are appended after the last valid one.
+	 * @param directory the directory of the segment files
+	 * @param policy when to force the log to disk
+	 * @param syncIntervalMillis how often the log is forced to disk with the {@link SyncPolicy#INTERVAL} policy
+	 * @throws IOException if the log can't be opened
+	 */
+	public WriteAheadLog(Path directory, SyncPolicy policy, long syncIntervalMillis) throws IOException {
+		this.directory = directory;
+		this.policy = policy;
+		Files.createDirectories(directory);
+
+		List<Path> segments = listSegments();
+		Path last;
+		if (segments.isEmpty()) {
+			last = directory.resolve(segmentName(0L));
+			nextSequence = 0L;
+		} else {
+			last = segments.get(segments.size() - 1);
+			long[] validBytesAndRecords = scan(last, 0L, null);
+			nextSequence = startSequence(last) + validBytesAndRecords[1];
+			if (validBytesAndRecords[0] < Files.size(last)) {
+				log.warn("Cutting off a torn record at the end of {}, after {} valid bytes", last, validBytesAndRecords[0]);
+				try (FileChannel truncated = FileChannel.open(last, StandardOpenOption.WRITE)) {
+					truncated.truncate(validBytesAndRecords[0]);
+				}
+			}
+		}
+		channel = openForAppend(last);
+		writtenSequence = nextSequence;
+		durableSequence = nextSequence;
+
+		if (policy == SyncPolicy.INTERVAL) {
+			syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "wal-sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			syncExecutor.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			syncExecutor = null;
+		}
+		log.info("Opened write-ahead log {} at sequence {} with sync policy {}", directory, nextSequence, policy);
+	}
+
+	/**
+	 * Replay every record of the log from the given sequence on
+	 * @param fromSequence the sequence of the first record to replay. Earlier records are skipped
+	 * @param replayer receives the records in the order they have been appended
+	 * @return the number of records replayed
+	 * @throws IOException if the log can't be read
+	 */
+	public long replay(long fromSequence, Replayer replayer) throws IOException {
+		long replayed = 0L;
+		List<Path> segments = listSegments();
+		for (int i = 0; i < segments.size(); i++) {
+			// a segment can be skipped altogether if the next one starts before the requested sequence
+			if (i + 1 < segments.size() && startSequence(segments.get(i + 1)) <= fromSequence) {
+				continue;
+			}
+			replayed += scan(segments.get(i), fromSequence, replayer)[2];
+		}
+		return replayed;
+	}
+
+	/**
+	 * Append a transaction to the log. Nothing is written to the file yet, see {@link #awaitDurable(long)}.
+	 * @return the sequence number of the record
+	 * @throws IOException if the log has failed
+	 */
+	public long append(long id, double amount, long parentId, String type) throws IOException {
+		checkFailure();
+		byte[] typeBytes = type == null ? null : type.getBytes(StandardCharsets.UTF_8);
+		int payloadSize = 28 + (typeBytes == null ? 0 : typeBytes.length);
+		synchronized (appendLock) {
+			if (pending.remaining() < FRAME_SIZE + payloadSize) {
+				pending = grow(pending, FRAME_SIZE + payloadSize);
+			}
+			int start = pending.position();
+			pending.putInt(payloadSize).putInt(0);
+			pending.putLong(id).putDouble(amount).putLong(parentId);
+			if (typeBytes == null) {
+				pending.putInt(-1);
+			} else {
+				pending.putInt(typeBytes.length).put(typeBytes);
+			}
+			pending.putInt(start + 4, crc(pending.array(), start + FRAME_SIZE, payloadSize));
+			return nextSequence++;
+		}
+	}
+
+	/**
+	 * Block until the record with the given sequence is as durable as the {@link SyncPolicy} demands.
+	 * @param sequence the sequence returned by {@link #append(long, double, long, String)}
+	 * @throws IOException if the log can't be written, or has failed before
+	 */
+	public void awaitDurable(long sequence) throws IOException {
+		checkFailure();
+		switch (policy) {
+			case ALWAYS:
+				if (durableSequence <= sequence) {
+					flush(sequence, true);
+				}
+				break;
+			case OS:
+				if (writtenSequence <= sequence) {
+					flush(sequence, false);
+				}
+				break;
+			case INTERVAL:
+				// forcing is left to the sync thread, only keep the pending buffer from growing without bound
+				if (pendingBytes() > FLUSH_THRESHOLD) {
+					flush(sequence, false);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * @return the number of records as durable as the {@link SyncPolicy} makes them: forced to disk, or only written to
+	 * the file with the {@link SyncPolicy#OS} policy
+	 */
+	public long durableSequence() {
+		return policy == SyncPolicy.OS ? writtenSequence : durableSequence;
+	}
+
+	/**
+	 * @return whether a write or a force has failed, after which the log refuses every append
+	 */
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	/**
+	 * @return the sequence the next record will get, ie the number of records ever appended
+	 */
+	public long nextSequence() {
+		synchronized (appendLock) {
+			return nextSequence;
+		}
+	}
+
+	/**
+	 * Force everything appended so far to the current segment and start a new one, so that the records from the
+	 * returned sequence on can later be kept while the older segments are deleted.
+	 * Must not be called concurrently with {@link #append(long, double, long, String)}.
+	 * @return the sequence of the first record of the new segment
+	 */
+	public long roll() throws IOException {
+		synchronized (flushLock) {
+			sync();
+			long sequence = nextSequence();
+			Path segment = directory.resolve(segmentName(sequence));
+			if (!Files.exists(segment)) {
+				channel.close();
+				channel = openForAppend(segment);
+			}
+			return sequence;
+		}
+	}
+
+	/**
+	 * Delete the segments holding only records before the given sequence. The current segment is always kept.
+	 * @param sequence the sequence of the first record that must be kept
+	 * @return the number of deleted segments
+	 */
+	public int truncate(long sequence) throws IOException {
+		int deleted = 0;
+		List<Path> segments = listSegments();
+		for (int i = 0; i + 1 < segments.size() && startSequence(segments.get(i + 1)) <= sequence; i++) {
+			Files.delete(segments.get(i));
+			deleted++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Write and force everything appended so far
+	 */
+	public void sync() throws IOException {
+		flush(nextSequence() - 1, true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (syncExecutor != null) {
+			syncExecutor.shutdownNow();
+		}
+		synchronized (flushLock) {
+			try {
+				if (failure == null) {
+					sync();
+				}
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			sync();
+		} catch (IOException e) {
+			log.error("Unable to sync the write-ahead log. {}", e.getMessage());
+		}
+	}
+
+	// the group commit. Whoever gets the flush lock writes everything appended so far, so whoever was waiting
+	// for the lock finds the record it came for already written. A failed write leaves part of the buffer in the
+	// file, so the log is failed rather than the rest of the buffer written after it
+	private void flush(long sequence, boolean force) throws IOException {
+		synchronized (flushLock) {
+			if ((force ? durableSequence : writtenSequence) > sequence) {
+				return;
+			}
+			checkFailure();
+			long upTo;
+			synchronized (appendLock) {
+				ByteBuffer toWrite = pending;
+				pending = flushing;
+				flushing = toWrite;
+				upTo = nextSequence;
+			}
+			try {
+				flushing.flip();
+				while (flushing.hasRemaining()) {
+					channel.write(flushing);
+				}
+				flushing.clear();
+				writtenSequence = upTo;
+				if (force) {
+					channel.force(false);
+					durableSequence = upTo;
+				}
+			} catch (IOException e) {
+				failure = e;
+				log.error("The write-ahead log has failed at sequence {}, no more records are accepted. {}", writtenSequence, e.getMessage());
+				throw e;
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException failed = failure;
+		if (failed != null) {
+			throw new IOException("The write-ahead log has failed", failed);
+		}
+	}
+
+	private int pendingBytes() {
+		synchronized (appendLock) {
+			return pending.position();
+		}
+	}
+
+	// read the records of a segment, handing the ones from the given sequence on to the replayer if there is one.
+	// returns the number of valid bytes, the number of valid records and the number of replayed records
+	private long[] scan(Path segment, long fromSequence, Replayer replayer) throws IOException {
+		long sequence = startSequence(segment);
+		long validBytes = 0L;
+		long records = 0L;
+		long replayed = 0L;
+		byte[] payload = new byte[256];
+		try (InputStream stream = Files.newInputStream(segment);
+		     DataInputStream input = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+			while (true) {
+				int payloadSize;
+				int crc;
+				try {
+					payloadSize = input.readInt();
+					crc = input.readInt();
+					if (payloadSize < 28 || payloadSize > MAX_PAYLOAD_SIZE) {
+						break;
+					}
+					if (payload.length < payloadSize) {
+						payload = new byte[Math.max(payloadSize, payload.length * 2)];
+					}
+					input.readFully(payload, 0, payloadSize);
+				} catch (EOFException e) {
+					break;
+				}
+				if (crc(payload, 0, payloadSize) != crc) {
+					break;
+				}
+				if (replayer != null && sequence >= fromSequence) {
+					ByteBuffer record = ByteBuffer.wrap(payload, 0, payloadSize);
+					long id = record.getLong();
+					double amount = record.getDouble();
+					long parentId = record.getLong();
+					int typeLength = record.getInt();
+					String type = typeLength < 0 ? null : new String(payload, 28, typeLength, StandardCharsets.UTF_8);
+					replayer.apply(sequence, id, amount, parentId, type);
+					replayed++;
+				}
+				sequence++;
+				records++;
+				validBytes += FRAME_SIZE + payloadSize;
+			}
+		}
+		return new long[]{validBytes, records, replayed};
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			stream.forEach(segments::add);
+		}
+		// the names are zero padded, so the lexicographic order is the order of the segments
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static FileChannel openForAppend(Path segment) throws IOException {
+		FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		return channel;
+	}
+
+	private static String segmentName(long startSequence) {
+		return String.format("%s%020d%s", SEGMENT_PREFIX, startSequence, SEGMENT_SUFFIX);
+	}
+
+	private static long startSequence(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int required) {
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + required));
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private static int crc(byte[] bytes, int offset, int length) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(bytes, offset, length);
+		return (int) crc32.getValue();
+	}
+}
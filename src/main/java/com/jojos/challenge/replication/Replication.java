@@ -0,0 +1,145 @@
+package com.jojos.challenge.replication;
+
+import com.jojos.challenge.metrics.Metrics;
+import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.util.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The replication role of this node, selected by the {@code replication.role} option:
+ * none (the default), leader, which ships its transactions to followers connecting to the {@code replication.port}
+ * option (8189 by default), or follower, which stores the transactions of the leader at the {@code replication.leader}
+ * option, as host:port, and only serves reads.
+ * Every frame of the stream carries the size of the leader, and the leader sends a heartbeat every
+ * {@code replication.heartbeat} milliseconds (500 by default) when there is nothing to ship.
+ * A follower lagging more than {@code replication.max.lag} milliseconds (0, no limit, by default) is stale.
+ *
+ * The protocol: the follower opens with {@link #MAGIC} and the position it resumes from as a long. The leader then
+ * sends frames of a byte, {@link #RECORDS} followed by the count and the id, amount, parent_id and type of every
+ * transaction, or {@link #HEARTBEAT}, each followed by the size of the leader as a long. A type is sent as its length
+ * in UTF-8 bytes, -1 for none, and the bytes, as a type may be of any length. A follower asking for
+ * a position past the size of the leader holds transactions the leader doesn't, and is sent {@link #REFUSED} with the
+ * size of the leader instead, before the leader hangs up.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Replication {
+
+	private static final Logger log = LoggerFactory.getLogger(Replication.class);
+
+	// changed whenever the protocol does, so that a node speaking another version is turned away
+	static final int MAGIC = 0x54524551;
+	static final byte RECORDS = 1;
+	static final byte HEARTBEAT = 2;
+	static final byte REFUSED = 3;
+
+	/**
+	 * Write a type, which may be null
+	 */
+	static void writeType(DataOutputStream output, String type) throws IOException {
+		if (type == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * @return the type written by {@link #writeType(DataOutputStream, String)}, or null
+	 */
+	static String readType(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public final static Replication INSTANCE = new Replication(Config.get("replication.role", "none"));
+
+	private final String role;
+	private final long maxLagMillis;
+	private volatile ReplicationLeader leader;
+	private volatile ReplicationFollower follower;
+
+	Replication(String role) {
+		if (!"none".equals(role) && !"leader".equals(role) && !"follower".equals(role)) {
+			throw new IllegalArgumentException("Unknown replication role " + role + ". Use one of none, leader or follower");
+		}
+		this.role = role;
+		this.maxLagMillis = Config.getLong("replication.max.lag", 0L);
+	}
+
+	/**
+	 * Start the configured role for the given handler
+	 */
+	public synchronized void start(TransactionHandler handler) {
+		long heartbeatMillis = Config.getLong("replication.heartbeat", 500L);
+		if ("leader".equals(role)) {
+			try {
+				leader = new ReplicationLeader(handler, Config.getInt("replication.port", 8189), heartbeatMillis);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to open the replication port", e);
+			}
+			Metrics.INSTANCE.gauge("transactions_replication_followers", "Followers connected to this leader.",
+					leader::followerCount);
+		} else if ("follower".equals(role)) {
+			String address = Config.get("replication.leader", "localhost:8189");
+			int separator = address.lastIndexOf(':');
+			if (separator < 0) {
+				throw new IllegalArgumentException("The replication leader must be given as host:port, not " + address);
+			}
+			follower = new ReplicationFollower(handler, new InetSocketAddress(address.substring(0, separator),
+					Integer.parseInt(address.substring(separator + 1))), heartbeatMillis);
+			Metrics.INSTANCE.gauge("transactions_replication_lag", "Transactions of the leader not replicated yet.",
+					follower::lag);
+			Metrics.INSTANCE.gauge("transactions_replication_lag_seconds", "Time since the follower was last caught up.",
+					() -> follower.lagMillis() / 1000d);
+			log.info("Replicating {} as a read-only follower", address);
+		}
+	}
+
+	/**
+	 * @return whether this node is a follower, which doesn't accept writes of its own
+	 */
+	public boolean isFollower() {
+		return "follower".equals(role);
+	}
+
+	/**
+	 * @return the number of transactions this follower is behind its leader, 0 if it's not a follower
+	 */
+	public long lag() {
+		ReplicationFollower current = follower;
+		return current == null ? 0L : current.lag();
+	}
+
+	/**
+	 * @return whether this is a follower that has been behind its leader for longer than allowed
+	 */
+	public boolean isStale() {
+		ReplicationFollower current = follower;
+		return current != null && maxLagMillis > 0L && current.lagMillis() > maxLagMillis;
+	}
+
+	public synchronized void stop() {
+		if (leader != null) {
+			leader.close();
+		}
+		if (follower != null) {
+			follower.close();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.jojos.challenge.replication;
+
+import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.transact.TransactionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The follower side of replication: connects to a {@link ReplicationLeader} and stores the transactions it streams
+ * in the same order, so that the handler of the follower holds the same transactions under the same positions.
+ *
+ * The stream resumes from the number of transactions the handler already holds, so a follower restarted with a
+ * persistent store or a write-ahead log of its own only fetches what it has missed. A lost connection, or a leader
+ * silent for three heartbeats, is retried every second.
+ *
+ * The lag is reported as the transactions the leader had told about and the follower hadn't stored yet as of the
+ * last frame, and as the time since the follower was last caught up with the leader, which keeps growing while the
+ * leader is unreachable.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class ReplicationFollower implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+
+	private static final long RETRY_MILLIS = 1000L;
+
+	private final TransactionHandler handler;
+	private final InetSocketAddress leader;
+	private final long heartbeatMillis;
+	private final Thread thread;
+	private volatile Socket socket;
+	private volatile boolean closed;
+
+	// the transactions of the leader the follower didn't have as of the last frame, and when it last had all of them.
+	// Updated by the follower thread only, so reading them costs the requests nothing
+	private volatile long lag;
+	private volatile long caughtUpMillis;
+	private volatile boolean connected;
+
+	/**
+	 * Start following a leader
+	 * @param handler the handler the transactions are stored to, which nothing else should insert to
+	 * @param leader the replication address of the leader
+	 * @param heartbeatMillis the heartbeat interval of the leader
+	 */
+	public ReplicationFollower(TransactionHandler handler, InetSocketAddress leader, long heartbeatMillis) {
+		this.handler = handler;
+		this.leader = leader;
+		this.heartbeatMillis = heartbeatMillis;
+		caughtUpMillis = System.currentTimeMillis();
+		thread = new Thread(this::follow, "replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return whether the follower is connected to the leader
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return the number of transactions the leader was known to have and the follower hadn't stored as of the last frame
+	 */
+	public long lag() {
+		return lag;
+	}
+
+	/**
+	 * @return the milliseconds since the follower last had every transaction of the leader, 0 if it has them now
+	 */
+	public long lagMillis() {
+		return connected && lag == 0L ? 0L : System.currentTimeMillis() - caughtUpMillis;
+	}
+
+	/**
+	 * Stop following, what has been stored so far is kept
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Socket current = socket;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				// it's going away anyway
+			}
+		}
+		thread.interrupt();
+		try {
+			thread.join(RETRY_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void follow() {
+		while (!closed) {
+			try {
+				stream();
+			} catch (IOException e) {
+				if (!closed) {
+					log.warn("Lost the replication leader {}. {}", leader, e.getMessage());
+				}
+			} finally {
+				connected = false;
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	// store whatever the leader streams, until the connection is lost
+	private void stream() throws IOException {
+		try (Socket connection = new Socket()) {
+			socket = connection;
+			connection.connect(leader, (int) heartbeatMillis * 3);
+			connection.setTcpNoDelay(true);
+			connection.setSoTimeout((int) heartbeatMillis * 3);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+
+			long from = handler.size();
+			output.writeInt(Replication.MAGIC);
+			output.writeLong(from);
+			output.flush();
+			connected = true;
+			log.info("Following {} from transaction {} on", leader, from);
+
+			List<Transaction> batch = new ArrayList<>();
+			while (!closed) {
+				byte frame = input.readByte();
+				if (frame == Replication.RECORDS) {
+					int count = input.readInt();
+					batch.clear();
+					for (int i = 0; i < count; i++) {
+						long id = input.readLong();
+						double amount = input.readDouble();
+						long parentId = input.readLong();
+						String type = Replication.readType(input);
+						Transaction transaction = new Transaction(amount, type, parentId);
+						transaction.setId(id);
+						batch.add(transaction);
+					}
+					int stored = 0;
+					for (boolean result : handler.insertAll(batch)) {
+						stored += result ? 1 : 0;
+					}
+					if (stored < count) {
+						// the follower has diverged from the leader, its positions no longer match
+						throw new IOException((count - stored) + " replicated transactions were rejected");
+					}
+				} else if (frame == Replication.REFUSED) {
+					throw new IOException("The leader has refused to be followed from transaction " + from
+							+ ", it only has " + input.readLong() + ". This follower has diverged");
+				} else if (frame != Replication.HEARTBEAT) {
+					throw new IOException("Unknown replication frame " + frame);
+				}
+				long leaderSize = input.readLong();
+				lag = Math.max(0L, leaderSize - handler.size());
+				if (lag == 0L) {
+					caughtUpMillis = System.currentTimeMillis();
+				}
+			}
+		} finally {
+			socket = null;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.jojos.challenge.replication;
+
+import com.jojos.challenge.transact.TransactionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The leader side of replication: accepts followers on a TCP port and streams the transactions to each of them in
+ * the order they have been stored, from wherever the follower asks to start.
+ *
+ * A follower opens the stream with the position it resumes from, its own number of transactions, which can't be more
+ * than the leader has: such a follower has diverged and is refused. Only the transactions the write-ahead log of the
+ * leader has made durable are shipped, see {@link TransactionHandler#readLog}, so a follower is never ahead of a
+ * leader that has crashed and been restarted. Every follower gets a thread of its own, which reads the transactions from the {@link TransactionHandler} a chunk at a time and
+ * sends them as a {@link Replication#RECORDS} frame, or a {@link Replication#HEARTBEAT} when nothing has been stored
+ * for a heartbeat interval. Both frames carry the number of transactions of the leader, which is what the follower
+ * measures its lag against.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class ReplicationLeader implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplicationLeader.class);
+
+	// the most transactions sent in a frame
+	private static final int CHUNK_SIZE = 4096;
+
+	private final TransactionHandler handler;
+	private final ServerSocket serverSocket;
+	private final long heartbeatMillis;
+	private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger shippers = new AtomicInteger();
+	private volatile boolean closed;
+
+	/**
+	 * Start accepting followers
+	 * @param handler the handler whose transactions are shipped
+	 * @param port the port to listen to, 0 for any free port
+	 * @param heartbeatMillis the longest a follower goes without a frame
+	 * @throws IOException if the port can't be bound
+	 */
+	public ReplicationLeader(TransactionHandler handler, int port, long heartbeatMillis) throws IOException {
+		this.handler = handler;
+		this.heartbeatMillis = heartbeatMillis;
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+
+		Thread acceptor = new Thread(this::accept, "replication-leader");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		log.info("Accepting replication followers on port {}", getPort());
+	}
+
+	/**
+	 * @return the port followers connect to
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of connected followers
+	 */
+	public int followerCount() {
+		return followers.size();
+	}
+
+	/**
+	 * Stop accepting followers and disconnect the connected ones
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			log.error("Unable to close the replication port. {}", e.getMessage());
+		}
+		for (Socket follower : followers) {
+			closeQuietly(follower);
+		}
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				followers.add(socket);
+				Thread shipper = new Thread(() -> ship(socket), "replication-shipper-" + shippers.incrementAndGet());
+				shipper.setDaemon(true);
+				shipper.start();
+			} catch (IOException e) {
+				if (!closed) {
+					log.error("Unable to accept a replication follower. {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	// stream the transactions to a follower until it disconnects
+	private void ship(Socket socket) {
+		long[] ids = new long[CHUNK_SIZE];
+		double[] amounts = new double[CHUNK_SIZE];
+		long[] parentIds = new long[CHUNK_SIZE];
+		String[] types = new String[CHUNK_SIZE];
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		     DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+			if (input.readInt() != Replication.MAGIC) {
+				log.error("Rejecting {}, it doesn't speak the replication protocol", socket.getRemoteSocketAddress());
+				return;
+			}
+			long from = input.readLong();
+			if (from > handler.size()) {
+				log.error("Refusing follower {}, it has diverged with {} transactions while the leader has {}",
+						socket.getRemoteSocketAddress(), from, handler.size());
+				output.writeByte(Replication.REFUSED);
+				output.writeLong(handler.size());
+				output.flush();
+				return;
+			}
+			int position = (int) from;
+			log.info("Follower {} connected, shipping transactions from {} on", socket.getRemoteSocketAddress(), position);
+
+			while (!closed) {
+				int count = handler.readLog(position, ids, amounts, parentIds, types, heartbeatMillis);
+				if (count == 0) {
+					output.writeByte(Replication.HEARTBEAT);
+				} else {
+					output.writeByte(Replication.RECORDS);
+					output.writeInt(count);
+					for (int i = 0; i < count; i++) {
+						output.writeLong(ids[i]);
+						output.writeDouble(amounts[i]);
+						output.writeLong(parentIds[i]);
+						Replication.writeType(output, types[i]);
+					}
+					position += count;
+				}
+				// how far the leader is, which may already be past what has just been sent
+				output.writeLong(Math.max(position, handler.size()));
+				output.flush();
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				log.warn("Follower {} disconnected. {}", socket.getRemoteSocketAddress(), e.getMessage());
+			}
+		} catch (UncheckedIOException e) {
+			log.error("Stopped shipping to follower {}. {}", socket.getRemoteSocketAddress(), e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			followers.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+}
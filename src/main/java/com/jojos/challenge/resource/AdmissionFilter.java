@@ -0,0 +1,249 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.metrics.Metrics;
+import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.util.Config;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Admission control of the {@link Writes}, which are refused up front when the service can't take them, rather than
+ * accepted until the heap fills up and every request slows down:
+ * with 503 and Retry-After while the heap is fuller than the {@code admission.heap} option after the last garbage
+ * collection (90 percent by default, 0 for no limit), while there are {@code admission.max.transactions} transactions
+ * stored (0, no limit, by default) or while {@code admission.inflight} writes are being served (0, no limit, by default),
+ * and with 429 and Retry-After once the {@code admission.rate} writes a second of the whole service (0, no limit, by
+ * default) or the {@code admission.client.rate} writes a second of a single client (0, no limit, by default) are
+ * exceeded, bursts of up to {@code admission.burst} and {@code admission.client.burst} writes (as many as the rate by
+ * default) aside.
+ *
+ * A client is told apart by the {@code admission.client.header} header (X-Client-Id by default), the writes without it
+ * share a rate of their own. No more than {@code admission.clients} clients (10000 by default) are tracked, the rest
+ * share the rate of the clients without the header too.
+ *
+ * Every refused write is counted in {@link Metrics} by the reason it was refused.
+ *
+ * An admitted write lets go of its in-flight write once its request has finished, however it finished, including
+ * with an exception no response filter gets to see.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Provider
+public class AdmissionFilter implements ContainerRequestFilter, ApplicationEventListener {
+
+    private static final String ADMITTED = AdmissionFilter.class.getName() + ".admitted";
+    // the clients without the header
+    private static final String ANONYMOUS = "";
+    // not among the statuses of jax-rs 2.0
+    static final int TOO_MANY_REQUESTS = 429;
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // how often the occupancy of the heap is sampled
+    private static final long HEAP_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // lets go of the in-flight write of an admitted request once it has finished. Holds no state of the request, so
+    // one serves them all
+    private static final RequestEventListener RELEASE = event -> {
+        if (event.getType() == RequestEvent.Type.FINISHED) {
+            Object admitted = event.getContainerRequest().getProperty(ADMITTED);
+            if (admitted != null) {
+                ((AdmissionFilter) admitted).done();
+            }
+        }
+    };
+
+    private static final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+            .collect(Collectors.toList());
+
+    private final Metrics metrics = Metrics.INSTANCE;
+    private final IntSupplier heapPercent;
+    private final IntSupplier size;
+    private final int heapWatermark;
+    private final long maxTransactions;
+    private final Semaphore inflight;
+    private final TokenBucket rate;
+    private final int clientRate;
+    private final int clientBurst;
+    private final String clientHeader;
+    private final int maxClients;
+    private final ConcurrentMap<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    public AdmissionFilter() {
+        this(AdmissionFilter::heapOccupancy, TransactionHandler.INSTANCE::size, System::nanoTime,
+                Config.getInt("admission.heap", 90), Config.getLong("admission.max.transactions", 0L),
+                Config.getInt("admission.inflight", 0),
+                Config.getInt("admission.rate", 0), Config.getInt("admission.burst", Config.getInt("admission.rate", 0)),
+                Config.getInt("admission.client.rate", 0),
+                Config.getInt("admission.client.burst", Config.getInt("admission.client.rate", 0)),
+                Config.get("admission.client.header", "X-Client-Id"), Config.getInt("admission.clients", 10_000));
+        metrics.gauge("transactions_heap_occupancy_percent", "Heap in use after the last garbage collection.",
+                heapPercent::getAsInt);
+        if (inflight != null) {
+            int limit = Config.getInt("admission.inflight", 0);
+            metrics.gauge("transactions_admission_inflight", "Writes being served.", () -> limit - inflight.availablePermits());
+        }
+    }
+
+    AdmissionFilter(IntSupplier heapPercent, IntSupplier size, LongSupplier clock, int heapWatermark, long maxTransactions,
+                    int inflight, int rate, int burst, int clientRate, int clientBurst, String clientHeader, int maxClients) {
+        this.heapPercent = new SampledPercent(heapPercent, clock);
+        this.size = size;
+        this.clock = clock;
+        this.heapWatermark = heapWatermark;
+        this.maxTransactions = maxTransactions;
+        this.inflight = inflight > 0 ? new Semaphore(inflight) : null;
+        this.rate = rate > 0 ? new TokenBucket(rate, Math.max(burst, 1)) : null;
+        this.clientRate = clientRate;
+        this.clientBurst = Math.max(clientBurst, 1);
+        this.clientHeader = clientHeader;
+        this.maxClients = maxClients;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (resourceInfo.getResourceMethod() == null || !resourceInfo.getResourceMethod().isAnnotationPresent(Writes.class)) {
+            return;
+        }
+        Response refusal = admit(requestContext.getHeaderString(clientHeader));
+        if (refusal != null) {
+            requestContext.abortWith(refusal);
+        } else {
+            requestContext.setProperty(ADMITTED, this);
+        }
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return inflight == null ? null : RELEASE;
+    }
+
+    /**
+     * Admit a write, holding one of the in-flight writes if they are limited, or refuse it
+     * @param client the client the write comes from, null if unknown
+     * @return the response refusing the write, null if it's admitted
+     */
+    Response admit(String client) {
+        if (heapWatermark > 0 && heapPercent.getAsInt() >= heapWatermark) {
+            metrics.admissionHeap.increment();
+            return refuse(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), SECOND_NANOS, "The heap is full");
+        }
+        if (maxTransactions > 0 && size.getAsInt() >= maxTransactions) {
+            metrics.admissionStore.increment();
+            return refuse(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), SECOND_NANOS, "The store is full");
+        }
+
+        long now = clock.getAsLong();
+        if (clientRate > 0) {
+            long wait = bucket(client, now).tryAcquire(now);
+            if (wait > 0L) {
+                metrics.admissionClientRate.increment();
+                return refuse(TOO_MANY_REQUESTS, wait, "Too many writes from the client");
+            }
+        }
+        if (rate != null) {
+            long wait = rate.tryAcquire(now);
+            if (wait > 0L) {
+                metrics.admissionRate.increment();
+                return refuse(TOO_MANY_REQUESTS, wait, "Too many writes");
+            }
+        }
+        // taken last, so that a write refused for its rate doesn't hold one
+        if (inflight != null && !inflight.tryAcquire()) {
+            metrics.admissionInflight.increment();
+            return refuse(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), SECOND_NANOS, "Too many writes in flight");
+        }
+        return null;
+    }
+
+    /**
+     * Let go of the in-flight write an admitted write holds
+     */
+    void done() {
+        if (inflight != null) {
+            inflight.release();
+        }
+    }
+
+    private TokenBucket bucket(String client, long now) {
+        String key = client == null ? ANONYMOUS : client;
+        TokenBucket bucket = clients.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (clients.size() >= maxClients) {
+            // a full bucket is the same as a new one, so the clients that have been quiet for a while are forgotten
+            clients.values().removeIf(idle -> idle.isFull(now));
+            if (clients.size() >= maxClients) {
+                key = ANONYMOUS;
+            }
+        }
+        return clients.computeIfAbsent(key, ignored -> new TokenBucket(clientRate, clientBurst));
+    }
+
+    // the nanoseconds to wait are rounded up to whole seconds
+    private static Response refuse(int status, long waitNanos, String reason) {
+        return Response.status(status).header("Retry-After", (waitNanos + SECOND_NANOS - 1L) / SECOND_NANOS)
+                .type(MediaType.TEXT_PLAIN_TYPE).entity(reason).build();
+    }
+
+    // the live data in the heap, as a percentage of the most the heap can grow to
+    private static int heapOccupancy() {
+        long used = 0L;
+        for (MemoryPoolMXBean pool : heapPools) {
+            used += pool.getCollectionUsage().getUsed();
+        }
+        return (int) (used * 100L / Runtime.getRuntime().maxMemory());
+    }
+
+    // a percentage sampled no more often than every HEAP_SAMPLE_NANOS, as reading the memory pools isn't free
+    private static class SampledPercent implements IntSupplier {
+        private final IntSupplier source;
+        private final LongSupplier clock;
+        private volatile long sampledAt;
+        private volatile int percent;
+
+        SampledPercent(IntSupplier source, LongSupplier clock) {
+            this.source = source;
+            this.clock = clock;
+            sampledAt = clock.getAsLong() - HEAP_SAMPLE_NANOS;
+        }
+
+        @Override
+        public int getAsInt() {
+            long now = clock.getAsLong();
+            if (now - sampledAt >= HEAP_SAMPLE_NANOS) {
+                percent = source.getAsInt();
+                sampledAt = now;
+            }
+            return percent;
+        }
+    }
+}
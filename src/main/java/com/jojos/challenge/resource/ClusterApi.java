@@ -0,0 +1,57 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.json.RemoteSum;
+import com.jojos.challenge.transact.TransactionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The api the nodes of a cluster talk to each other through, see {@link com.jojos.challenge.cluster.Cluster}
+ *
+ * POST /cluster/sums
+ * Body:
+ * [ { "id":long,"parent_id":long,"sum":double }, ... ]
+ * the latest sums of subtrees stored on another node whose parent is stored on this one.
+ *
+ * POST /cluster/resync
+ * asks this node to push the sums of all of its subtrees whose parent is stored on another node.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Path("/cluster")
+public class ClusterApi {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterApi.class);
+
+    private static final TransactionHandler handler = TransactionHandler.INSTANCE;
+
+    @POST @Path("sums")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response addSums(List<RemoteSum> sums) {
+        if (sums == null) {
+            sums = Collections.emptyList();
+        }
+        log.debug("POST cluster/sums with {} sums", sums.size());
+
+        handler.addRemoteSums(sums);
+        return Response.noContent().build();
+    }
+
+    @POST @Path("resync")
+    public Response resync() {
+        log.debug("POST cluster/resync");
+
+        int pushed = handler.pushRemoteSums();
+
+        log.debug("POST pushed {} sums", pushed);
+        return Response.noContent().build();
+    }
+}
@@ -0,0 +1,32 @@
+package com.jojos.challenge.resource;
+
+/**
+ * How the {@link Server} runs the requests it accepts.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public enum ExecutionModel {
+
+    /**
+     * A fixed number of threads with a bounded queue in front of them. A request arriving when both are full is
+     * answered with 503 Service Unavailable right away, instead of piling up.
+     */
+    BOUNDED,
+
+    /**
+     * A new virtual thread for every request, on a JDK that has them (21 and later). Blocking on the transaction lock
+     * or the write-ahead log doesn't hold on to a platform thread, so thousands of requests can be in flight.
+     * Falls back to {@link #BOUNDED} on older JDKs.
+     */
+    VIRTUAL,
+
+    /**
+     * An unbounded cached thread pool, one platform thread per concurrent request. It has no limit and a burst of
+     * requests can start thousands of threads.
+     */
+    CACHED;
+
+    public static ExecutionModel fromString(String model) {
+        return valueOf(model.trim().toUpperCase());
+    }
+}
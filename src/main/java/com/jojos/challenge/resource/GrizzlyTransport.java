@@ -0,0 +1,126 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.metrics.Metrics;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.RequestExecutorProvider;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpContainer;
+import org.glassfish.jersey.server.ContainerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import javax.ws.rs.ProcessingException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves the resources on Grizzly. The selector threads read and parse the requests, which are then run by the
+ * executor of the server, or answered with 503 by the selector thread if the executor rejects them. Connections are
+ * kept alive for as many requests as the client sends.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class GrizzlyTransport implements HttpTransport {
+
+    private static final RequestExecutorProvider SAME_THREAD = new RequestExecutorProvider.SameThreadProvider();
+
+    private final HttpServer server;
+
+    GrizzlyTransport(ResourceConfig resourceConfig, int port, int backlog, boolean noDelay, ExecutorService executor) {
+        GrizzlyHttpContainer container = ContainerFactory.createContainer(GrizzlyHttpContainer.class, resourceConfig);
+
+        NetworkListener listener = new NetworkListener("transactions", NetworkListener.DEFAULT_NETWORK_HOST, port);
+        listener.getKeepAlive().setMaxRequestsCount(-1);
+        TCPNIOTransport transport = listener.getTransport();
+        transport.setTcpNoDelay(noDelay);
+        // grizzly's threads are daemons, the selectors have to keep the process alive like the dispatcher of the jdk
+        int selectors = Runtime.getRuntime().availableProcessors();
+        transport.setSelectorRunnersCount(selectors);
+        transport.setKernelThreadPoolConfig(ThreadPoolConfig.defaultConfig().setPoolName("grizzly-selector")
+                .setCorePoolSize(selectors).setMaxPoolSize(selectors).setDaemon(false));
+        if (backlog > 0) {
+            transport.setServerConnectionBackLog(backlog);
+        }
+        // the requests are handed to the executor by the handler, which is owned and shut down by the server
+        transport.setIOStrategy(SameThreadIOStrategy.getInstance());
+        transport.setWorkerThreadPoolConfig(null);
+
+        server = new HttpServer();
+        server.addListener(listener);
+        server.getServerConfiguration().addHttpHandler(new DispatchingHandler(container, executor), "/");
+    }
+
+    @Override
+    public void start() {
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new ProcessingException("Unable to start the grizzly http server", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        server.shutdownNow();
+    }
+
+    /**
+     * Runs the requests on the executor, or answers them with 503 Service Unavailable if it rejects them
+     */
+    private static class DispatchingHandler extends HttpHandler {
+        private final GrizzlyHttpContainer container;
+        private final ExecutorService executor;
+
+        private DispatchingHandler(GrizzlyHttpContainer container, ExecutorService executor) {
+            this.container = container;
+            this.executor = executor;
+        }
+
+        @Override
+        public void service(Request request, Response response) {
+            // the container resumes the response once it's written
+            response.suspend();
+            try {
+                executor.execute(() -> serve(request, response));
+            } catch (RejectedExecutionException e) {
+                Metrics.INSTANCE.requestsRejected.increment();
+                response.setHeader("Retry-After", "1");
+                response.setStatus(503);
+                response.resume();
+            }
+        }
+
+        private void serve(Request request, Response response) {
+            try {
+                container.service(request, response);
+            } catch (Exception e) {
+                if (response.isSuspended()) {
+                    response.setStatus(500);
+                    response.resume();
+                }
+            }
+        }
+
+        // the handler is run on the selector thread, and hands the request to the executor itself
+        @Override
+        public RequestExecutorProvider getRequestExecutorProvider() {
+            return SAME_THREAD;
+        }
+
+        @Override
+        public void start() {
+            container.start();
+        }
+
+        @Override
+        public void destroy() {
+            container.destroy();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.jojos.challenge.resource;
+
+/**
+ * An http container serving the resources of the {@link Server}, see {@link Transport}.
+ * The transport reads the requests on threads of its own and hands them to the executor of the server. A request the
+ * executor rejects is answered with 503 by the transport, on the thread that read it, without reaching the resources.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+interface HttpTransport {
+
+    void start();
+
+    void stop();
+}
@@ -0,0 +1,92 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.jdkhttp.JdkHttpHandlerContainer;
+import org.glassfish.jersey.server.ContainerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import javax.ws.rs.ProcessingException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves the resources on the http server of the JDK. The dispatcher thread reads the requests, as the JDK server does
+ * by default, and hands them to the executor of the server, answering those the executor rejects with 503 itself.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class JdkTransport implements HttpTransport {
+
+    // the property the JDK http server reads to set TCP_NODELAY, once, when it's first used
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final HttpServer server;
+    private final JdkHttpHandlerContainer container;
+
+    JdkTransport(ResourceConfig resourceConfig, int port, int backlog, boolean noDelay, ExecutorService executor) {
+        if (noDelay && System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        container = ContainerFactory.createContainer(JdkHttpHandlerContainer.class, resourceConfig);
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), backlog);
+        } catch (IOException e) {
+            throw new ProcessingException("Unable to create the http server on port " + port, e);
+        }
+        server.createContext("/", new DispatchingHandler(container, executor));
+    }
+
+    @Override
+    public void start() {
+        container.getApplicationHandler().onStartup(container);
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        container.getApplicationHandler().onShutdown(container);
+        server.stop(1);
+    }
+
+    /**
+     * Runs the requests on the executor, or answers them with 503 Service Unavailable if it rejects them
+     */
+    private static class DispatchingHandler implements HttpHandler {
+        private final JdkHttpHandlerContainer container;
+        private final ExecutorService executor;
+
+        private DispatchingHandler(JdkHttpHandlerContainer container, ExecutorService executor) {
+            this.container = container;
+            this.executor = executor;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                executor.execute(() -> serve(exchange));
+            } catch (RejectedExecutionException e) {
+                Metrics.INSTANCE.requestsRejected.increment();
+                try {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(503, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        }
+
+        // the container closes the exchange once the response is written, unless it fails before
+        private void serve(HttpExchange exchange) {
+            try {
+                container.handle(exchange);
+            } catch (IOException e) {
+                exchange.close();
+            }
+        }
+    }
+}
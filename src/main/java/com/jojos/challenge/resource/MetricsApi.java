@@ -0,0 +1,28 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.metrics.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * Serves the metrics of the service to Prometheus
+ *
+ * GET /metrics
+ * Returns:
+ * the request counts, error counts and latencies of every endpoint, the wait and hold times of the transaction
+ * lock, the insert and sum lookup counters and the number of stored, typed and orphan transactions,
+ * in the Prometheus text format.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Path("/metrics")
+public class MetricsApi {
+
+    @GET
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String getMetrics() {
+        return Metrics.INSTANCE.scrape();
+    }
+}
@@ -0,0 +1,55 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.metrics.Metrics;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Records the requests, the errors and the latency of every endpoint in {@link Metrics}.
+ * An endpoint is named after the resource method serving it, requests that match none are recorded as unmatched.
+ *
+ * A request is timed from its start until it has finished, its response written, so the latency includes the
+ * serialization of the entity, and a request failing with an exception no mapper handles is recorded as a 500.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Provider
+public class MetricsListener implements ApplicationEventListener {
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return new Timer(System.nanoTime());
+    }
+
+    // the start of a request, kept as a primitive rather than boxed in a property of the request
+    private static class Timer implements RequestEventListener {
+        private final long start;
+
+        Timer(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void onEvent(RequestEvent event) {
+            if (event.getType() != RequestEvent.Type.FINISHED) {
+                return;
+            }
+            ResourceMethod method = event.getUriInfo() == null ? null : event.getUriInfo().getMatchedResourceMethod();
+            String endpoint = method == null ? "unmatched" : method.getInvocable().getDefinitionMethod().getName();
+            ContainerResponse response = event.getContainerResponse();
+            int status = response == null ? Response.Status.INTERNAL_SERVER_ERROR.getStatusCode() : response.getStatus();
+            Metrics.INSTANCE.endpoint(endpoint).record(status, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.jojos.challenge.resource;
+
+import com.jojos.challenge.replication.Replication;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Keeps a follower of the replication read-only: the {@link Writes} are refused with 403, since they belong to the
+ * leader, and reads are answered with 503 and Retry-After while the follower is stale. Every response of a follower
+ * reports how many transactions it's behind its leader in the X-Replication-Lag header.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Provider
+public class ReplicationFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Replication replication = Replication.INSTANCE;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (!replication.isFollower() || resourceInfo.getResourceMethod() == null) {
+            return;
+        }
+        if (resourceInfo.getResourceMethod().isAnnotationPresent(Writes.class)) {
+            requestContext.abortWith(Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("This is a read-only replica, send writes to the leader").build());
+        } else if (replication.isStale()) {
+            requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "1").build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (replication.isFollower()) {
+            responseContext.getHeaders().putSingle("X-Replication-Lag", replication.lag());
+        }
+    }
+}
@@ -1,21 +1,48 @@
 package com.jojos.challenge.resource;
 
+import com.jojos.challenge.cluster.Cluster;
+import com.jojos.challenge.json.ChangeStream;
+import com.jojos.challenge.json.EncodedJson;
+import com.jojos.challenge.json.IdStream;
+import com.jojos.challenge.json.ImportResult;
 import com.jojos.challenge.json.InsertStatus;
 import com.jojos.challenge.json.Sum;
 import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.json.JsonWriters;
+import com.jojos.challenge.json.JsonWriters.ChangeStreamWriter;
+import com.jojos.challenge.json.TypeStats;
+import com.jojos.challenge.metrics.Metrics;
 import com.jojos.challenge.transact.TransactionHandler;
+import com.jojos.challenge.transact.TransactionImporter;
+import com.jojos.challenge.util.Config;
+import com.jojos.challenge.util.LongLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import java.util.Set;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
 
 /**
  * The class defining the rest api
@@ -25,16 +52,33 @@ import java.util.Set;
  * Returns:
  * { "amount":double,"type":string,"parent_id":long }
  *
- * A json list of all transaction ids that share the same type $type.
+ * A json list of all transaction ids that share the same type $type, in ascending order.
  * GET /transactionservice/types/$type
+ * GET /transactionservice/types/$type?limit=int&after=long
  * Returns:
  * [ long, long, .... ]
+ * Without a limit the whole list is streamed. With a limit of up to 10000 a page of the ids greater than after is
+ * returned instead, with a Link header to the next page when the page is full.
+ *
+ * The count, sum, min, max and average of the amounts of the transactions of type $type, in O(1).
+ * GET /transactionservice/types/$type/stats
+ * Returns:
+ * { "type":string,"count":long,"sum":double,"min":double,"max":double,"average":double }
  *
  * A sum of all transactions that are transitively linked by their parent_id to $transaction_id.
  * GET /transactionservice/sum/$transaction_id
  * Returns
  * { "sum": double }
  *
+ * Many transactions, or the sums of many transactions, in one request. Up to 10000 ids, answered in their order
+ * with null for the ids that don't exist.
+ * POST /transactionservice/transactions:get
+ * POST /transactionservice/sums:get
+ * Body:
+ * [ long, long, .... ]
+ * Returns:
+ * [ { "id":long,"amount":double,"type":string,"parent_id":long }, ... ] or [ { "sum": double }, ... ]
+ *
  * PUT /transactionservice/transaction/$transaction_id
  * Body:
  * { "amount":double,"type":string,"parent_id":long }
@@ -44,6 +88,40 @@ import java.util.Set;
  * type is a string specifying a type of the transaction.
  * parent_id is an optional long that may specify the parent transaction of this transaction.
  *
+ * PUT /transactionservice/transactions
+ * Body:
+ * [ { "id":long,"amount":double,"type":string,"parent_id":long }, ... ]
+ * Returns:
+ * [ { "status": string }, ... ]
+ * a batch of up to 10000 transactions stored in one go, with the status of each one in the order of the batch.
+ * A transaction may reference a parent that comes later in the same batch.
+ *
+ * POST /transactionservice/import
+ * Body:
+ * newline-delimited json, one { "id":long,"amount":double,"type":string,"parent_id":long } per line
+ * Returns:
+ * { "inserted":long,"rejected":long,"error":string }
+ * a streaming bulk import that stores the transactions in chunks without reading the whole body in memory.
+ *
+ * GET /transactionservice/changes
+ * GET /transactionservice/changes?after=long
+ * Returns:
+ * text/event-stream of
+ * event: insert, data: { "seq":long,"id":long,"amount":double,"type":string,"parent_id":long }
+ * event: sum, data: { "seq":long,"id":long,"sum":double }
+ * every transaction stored from now on, or after the sequence given as after or as the Last-Event-ID header, followed
+ * by the sums it has changed. Every subscriber holds a request thread for as long as it's connected, so there are
+ * no more than --changes.subscribers of them at a time, and the rest are answered with 503.
+ * A subscriber reads the stored transactions at its own pace, a slow one falls behind without holding up the inserts.
+ *
+ * The transactions and the sums are answered with an ETag, and with 304 Not Modified to a GET whose If-None-Match
+ * has it. A transaction never changes, so its json is cached once encoded, up to --cache.bytes of them.
+ *
+ * A follower of the replication refuses the PUTs and the import with 403, see {@link ReplicationFilter}.
+ *
+ * In a {@link Cluster} every request is routed to the nodes owning the transactions, and answered with 503 if one of
+ * them can't be reached. The changes are those of the partition of the node subscribed to.
+ *
  * @author karanikasg@gmail.com.
  */
 @Path("/transactionservice")
@@ -52,6 +130,38 @@ public class ResourceApi {
 	private static final Logger log = LoggerFactory.getLogger(ResourceApi.class);
 
 	private static final TransactionHandler handler = TransactionHandler.INSTANCE;
+	private static final Cluster cluster = Cluster.INSTANCE;
+	private static final TransactionImporter importer = cluster.isEnabled()
+			? new TransactionImporter(cluster::insertAll, TransactionImporter.DEFAULT_CHUNK_SIZE) : new TransactionImporter(handler);
+
+	private static final InsertStatus OK = new InsertStatus(Response.Status.OK.toString());
+	private static final InsertStatus BAD_REQUEST = new InsertStatus(Response.Status.BAD_REQUEST.toString());
+
+	// the most ids of a type returned in a page
+	static final int MAX_PAGE = 10_000;
+	// the most transactions or sums asked for in one request
+	static final int MAX_IDS = 10_000;
+
+	private static final Metrics metrics = Metrics.INSTANCE;
+	// the json of the transactions served most recently, by id
+	private static final LongLruCache<EncodedJson> cache = Config.getLong("cache.bytes", 32L << 20) > 0L
+			? new LongLruCache<>(Config.getLong("cache.bytes", 32L << 20), 64, EncodedJson::size) : null;
+
+	private static final Semaphore subscribers = new Semaphore(Config.getInt("changes.subscribers", 16));
+	private static final long HEARTBEAT_MILLIS = Config.getLong("changes.heartbeat", 5000L);
+
+	static {
+		int limit = subscribers.availablePermits();
+		metrics.gauge("transactions_change_subscribers", "Clients subscribed to the changes.",
+				() -> limit - subscribers.availablePermits());
+		if (cache != null) {
+			metrics.gauge("transactions_response_cache_bytes", "Memory of the encoded transactions cached.", cache::weight);
+			metrics.gauge("transactions_response_cache_entries", "Encoded transactions cached.", cache::size);
+		}
+	}
+
+	@Context
+	private HttpHeaders headers;
 
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
@@ -61,51 +171,148 @@ public class ResourceApi {
 
 	@GET @Path("transaction/{transaction_id:\\d+}")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Transaction getTransaction(@PathParam("transaction_id") String transaction_id) {
+	public Response getTransaction(@PathParam("transaction_id") String transaction_id, @Context Request request) {
 		log.debug("GET transaction/{}", transaction_id);
 
-		Transaction transaction = new Transaction();
-
 		try {
-			transaction = handler.getTransaction(Long.parseLong(transaction_id));
-			log.debug("GET returning {}", transaction);
+			long id = Long.parseLong(transaction_id);
+			// a transaction never changes once stored, so its json is good for as long as it's cached
+			EncodedJson encoded = cache == null ? null : cache.get(id);
+			if (encoded == null) {
+				if (cache != null) {
+					metrics.responseCacheMisses.increment();
+				}
+				Transaction transaction = routed() ? cluster.getTransaction(id) : handler.getTransaction(id);
+				log.debug("GET returning {}", transaction);
+				if (transaction == null) {
+					return Response.noContent().build();
+				}
+				if (cache == null || !cluster.isLocal(id)) {
+					return conditional(request, tag(transaction), transaction);
+				}
+				encoded = new EncodedJson(JsonWriters.encode(transaction), tag(transaction));
+				cache.put(id, encoded);
+			} else {
+				metrics.responseCacheHits.increment();
+			}
+			return conditional(request, encoded.getTag(), encoded);
 		} catch (NumberFormatException e) {
 			log.error("Unable to complete GET transaction/{}. {}", transaction_id, e.getMessage());
+			return Response.ok(new Transaction()).build();
 		}
-		return transaction;
 	}
 
 	@GET @Path("types/{type}")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Set<Long> getTypes(@PathParam("type") String type) {
-		log.debug("GET types/{}", type);
+	public Response getTypes(@PathParam("type") String type, @QueryParam("after") Long after,
+	                         @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+		log.debug("GET types/{} after {} limit {}", type, after, limit);
+
+		if (limit == null) {
+			// the whole type, streamed a page at a time
+			return Response.ok(new IdStream(routed() ? (from, page) -> cluster.getTypes(type, from, page)
+					: (from, page) -> handler.getTypes(type, from, page))).build();
+		}
+		if (limit <= 0 || limit > MAX_PAGE) {
+			log.error("Unable to complete GET types/{}. The limit must be between 1 and {}", type, MAX_PAGE);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (after != null && after == Long.MAX_VALUE) {
+			return Response.ok(new long[0]).build();
+		}
+
+		long from = after == null ? Long.MIN_VALUE : after + 1;
+		long[] ids = routed() ? cluster.getTypes(type, from, limit) : handler.getTypes(type, from, limit);
+
+		log.debug("GET returning {} ids", ids.length);
+		Response.ResponseBuilder response = Response.ok(ids);
+		if (ids.length == limit) {
+			response.link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", ids[ids.length - 1]).build(), "next");
+		}
+		return response.build();
+	}
+
+	@GET @Path("types/{type}/stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public TypeStats getTypeStats(@PathParam("type") String type) {
+		log.debug("GET types/{}/stats", type);
 
-		Set<Long> types = handler.getTypes(type);
+		TypeStats stats = routed() ? cluster.getTypeStats(type) : handler.getTypeStats(type);
 
-		log.debug("GET returning {}", types.toString());
-		return types;
+		log.debug("GET returning {}", stats);
+		return stats;
 	}
 
 	@GET @Path("sum/{transaction_id:\\d+}")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Sum getSum(@PathParam("transaction_id") String transaction_id) {
+	public Response getSum(@PathParam("transaction_id") String transaction_id, @Context Request request) {
 		log.debug("GET sum/{}", transaction_id);
 
-		Sum sum = new Sum();
+		double sum = 0d;
 
 		try {
-			sum = new Sum(handler.getSum(Long.parseLong(transaction_id)));
+			long id = Long.parseLong(transaction_id);
+			sum = routed() ? cluster.getSum(id) : handler.getSum(id);
 		} catch (NumberFormatException e) {
 			log.error("Unable to calculate sum for {}. Reason {}", transaction_id, e.getMessage());
+		} catch (WebApplicationException e) {
+			// a node of the cluster is unavailable
+			throw e;
 		} catch ( Exception e) {
 			e.printStackTrace();
 		}
 
-		log.debug("GET returning {}", sum.toString());
-		return sum;
+		if (log.isDebugEnabled()) {
+			log.debug("GET returning {}", sum);
+		}
+		// the sum is all there is to the response, so it's its own version
+		return conditional(request, Long.toHexString(Double.doubleToLongBits(sum)), new Sum(sum));
+	}
+
+	@POST @Path("transactions:get")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTransactions(long[] transactionIds) {
+		if (transactionIds == null) {
+			transactionIds = new long[0];
+		}
+		log.debug("POST transactions:get with {} ids", transactionIds.length);
+		if (transactionIds.length > MAX_IDS) {
+			log.error("Unable to complete POST transactions:get. No more than {} ids are allowed", MAX_IDS);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		Transaction[] transactions = routed() ? cluster.getTransactions(transactionIds) : handler.getTransactions(transactionIds);
+
+		log.debug("POST returning {} transactions", transactions.length);
+		return Response.ok(Arrays.asList(transactions)).build();
+	}
+
+	@POST @Path("sums:get")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getSums(long[] transactionIds) {
+		if (transactionIds == null) {
+			transactionIds = new long[0];
+		}
+		log.debug("POST sums:get with {} ids", transactionIds.length);
+		if (transactionIds.length > MAX_IDS) {
+			log.error("Unable to complete POST sums:get. No more than {} ids are allowed", MAX_IDS);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		double[] sums = routed() ? cluster.getSums(transactionIds) : handler.getSums(transactionIds);
+
+		List<Sum> result = new ArrayList<>(sums.length);
+		for (double sum : sums) {
+			result.add(Double.isNaN(sum) ? null : new Sum(sum));
+		}
+		log.debug("POST returning {} sums", result.size());
+		return Response.ok(result).build();
 	}
 
 	@PUT @Path("transaction/{transaction_id:\\d+}")
+	@Writes
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	public InsertStatus insertTransaction(@PathParam("transaction_id") String transaction_id, Transaction transaction) {
@@ -114,7 +321,7 @@ public class ResourceApi {
 			transaction.setId(Long.parseLong(transaction_id));
 			log.debug("PUT transaction/{} {}", transaction_id, transaction);
 
-			result = handler.insert(transaction);
+			result = routed() ? cluster.insert(transaction) : handler.insert(transaction);
 
 		} catch (NumberFormatException e) {
 			log.error("Unable to complete PUT transaction/{}. {}", transaction_id, e.getMessage());
@@ -127,4 +334,97 @@ public class ResourceApi {
 		return insertStatus;
 	}
 
+	@PUT @Path("transactions")
+	@Writes
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response insertTransactions(List<Transaction> transactions) {
+		if (transactions == null) {
+			transactions = Collections.emptyList();
+		}
+		log.debug("PUT transactions with {} transactions", transactions.size());
+		// the batch is stored under the write lock in one go, so it's kept as short as the lookups
+		if (transactions.size() > MAX_IDS) {
+			log.error("Unable to complete PUT transactions. No more than {} transactions are allowed", MAX_IDS);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+
+		boolean[] results = routed() ? cluster.insertAll(transactions) : handler.insertAll(transactions);
+
+		List<InsertStatus> insertStatuses = new ArrayList<>(results.length);
+		for (boolean result : results) {
+			insertStatuses.add(result ? OK : BAD_REQUEST);
+		}
+		log.debug("PUT returning {} statuses", insertStatuses.size());
+		return Response.ok(insertStatuses).build();
+	}
+
+	@POST @Path("import")
+	@Writes
+	@Consumes({"application/x-ndjson", MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response importTransactions(InputStream input) {
+		log.debug("POST import");
+
+		ImportResult result = importer.importFrom(input);
+
+		log.debug("POST returning {}", result);
+		return Response.status(result.getError() == null ? Response.Status.OK : Response.Status.BAD_REQUEST).entity(result).build();
+	}
+
+	@GET @Path("changes")
+	@Produces(ChangeStreamWriter.EVENT_STREAM)
+	public Response getChanges(@QueryParam("after") Long after, @HeaderParam("Last-Event-ID") Long lastEventId) {
+		log.debug("GET changes after {} last event {}", after, lastEventId);
+
+		long from = after != null ? after : lastEventId != null ? lastEventId : handler.size();
+		if (from < 0 || from > Integer.MAX_VALUE) {
+			log.error("Unable to complete GET changes. There is no sequence {}", from);
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (!subscribers.tryAcquire()) {
+			log.error("Unable to complete GET changes. Too many subscribers");
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build();
+		}
+		ChangeStream.Source source = new ChangeStream.Source() {
+			@Override
+			public int read(int position, long[] ids, double[] amounts, long[] parentIds, String[] types, long timeoutMillis)
+					throws InterruptedException {
+				return handler.readLog(position, ids, amounts, parentIds, types, timeoutMillis);
+			}
+
+			@Override
+			public void sums(int position, int count, ChangeStream.SumSink sink) {
+				handler.readSums(position, count, sink::sum);
+			}
+		};
+		return Response.ok(new ChangeStream(source, from, HEARTBEAT_MILLIS, subscribers::release))
+				.header(HttpHeaders.CACHE_CONTROL, "no-cache").build();
+	}
+
+	// 304 if the client already has the entity with the tag, or the entity with its tag
+	private static Response conditional(Request request, String tag, Object entity) {
+		EntityTag entityTag = new EntityTag(tag);
+		Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+		if (notModified != null) {
+			metrics.notModified.increment();
+			return notModified.build();
+		}
+		return Response.ok(entity).tag(entityTag).build();
+	}
+
+	// a hash of everything in the json of a transaction
+	private static String tag(Transaction transaction) {
+		long hash = Double.doubleToLongBits(transaction.getAmount());
+		hash = hash * 31L + transaction.getParentId();
+		hash = hash * 31L + Objects.hashCode(transaction.getType());
+		hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+		return Long.toHexString(hash ^ hash >>> 33);
+	}
+
+	// whether the request is to be served by the whole cluster, rather than by the partition of this node alone
+	private boolean routed() {
+		return cluster.isEnabled() && headers.getHeaderString(Cluster.FORWARDED) == null;
+	}
+
 }
\ No newline at end of file
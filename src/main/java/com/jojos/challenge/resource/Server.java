@@ -1,7 +1,7 @@
 package com.jojos.challenge.resource;
 
-import com.sun.net.httpserver.HttpServer;
-import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import com.jojos.challenge.json.JsonWriters;
+import com.jojos.challenge.util.Config;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,13 +11,23 @@ import javax.ws.rs.core.UriBuilder;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The http server class. Starting and stoppnog the server is done here
  *
+ * The server is configured with the following options, see {@link Config}:
+ * server.transport (jdk, see {@link Transport}), server.port (8089), server.backlog (0, the system default),
+ * server.executor (bounded, see {@link ExecutionModel}), server.threads (64) and server.queue (1024) for the bounded
+ * executor, and server.nodelay (true) which disables Nagle's algorithm on the accepted connections.
+ *
  * Created by karanikasg@gmail.com.
  */
 public class Server {
@@ -25,37 +35,62 @@ public class Server {
 
     private final AtomicBoolean started;
 
-    private final HttpServer server;
+    private final HttpTransport transport;
     private final ExecutorService executorService;
     private final URI uri;
 
     /**
-     * Public constructor of our server.
+     * Public constructor of our server, configured from the startup options.
      * @throws ProcessingException when problems during server creation occurs.
      */
     public Server() throws ProcessingException {
+        this(Transport.fromString(Config.get("server.transport", "jdk")), Config.getInt("server.port", 8089),
+                Config.getInt("server.backlog", 0), ExecutionModel.fromString(Config.get("server.executor", "bounded")),
+                Config.getInt("server.threads", 64), Config.getInt("server.queue", 1024));
+    }
+
+    /**
+     * @param transportType the http container to run on
+     * @param port the port to listen to
+     * @param backlog the maximum number of connections waiting to be accepted, 0 for the system default
+     * @param model how requests are run
+     * @param threads the number of threads of the {@link ExecutionModel#BOUNDED} executor
+     * @param queue the number of requests the {@link ExecutionModel#BOUNDED} executor queues up
+     * @throws ProcessingException when problems during server creation occurs.
+     */
+    Server(Transport transportType, int port, int backlog, ExecutionModel model, int threads, int queue) throws ProcessingException {
 
         // load resources first
-        ResourceConfig resourceConfig = new ResourceConfig(ResourceApi.class);
+        ResourceConfig resourceConfig = new ResourceConfig(ResourceApi.class, ClusterApi.class, MetricsApi.class,
+                MetricsListener.class, ReplicationFilter.class, AdmissionFilter.class)
+                .registerClasses(JsonWriters.ALL);
 
-        uri = UriBuilder.fromUri("http://" + createHostName() + "/").port(8089).build();
-        server = JdkHttpServerFactory.createHttpServer(uri, resourceConfig, false);
+        uri = UriBuilder.fromUri("http://" + createHostName() + "/").port(port).build();
         started = new AtomicBoolean();
-        executorService = Executors.newCachedThreadPool();
-        // set the executors BEFORE the server is started
-        server.setExecutor(executorService);
+        executorService = createExecutor(model, threads, queue);
+        boolean noDelay = Config.getBoolean("server.nodelay", true);
+        switch (transportType) {
+            case GRIZZLY:
+                transport = new GrizzlyTransport(resourceConfig, port, backlog, noDelay, executorService);
+                break;
+            case JDK:
+            default:
+                transport = new JdkTransport(resourceConfig, port, backlog, noDelay, executorService);
+                break;
+        }
+        log.info("Serving requests on the {} transport with the {} executor", transportType, model);
     }
 
     /**
-     * Create and start a {@link HttpServer}.
+     * Start the http server on the configured {@link Transport}.
      * It's not allowed to start the server twice.
      * @throws IllegalStateException if an attempt is made to start an already started server.
      */
     public void start() throws IllegalStateException {
-        log.info("Starting JDK HttpServer...");
+        log.info("Starting HttpServer...");
 
         if (started.compareAndSet(false, true)) {
-            server.start();
+            transport.start();
             log.info(String.format("Jersey HttpServer started with WADL available at " + "%sapplication.wadl", uri));
         } else {
             String msg = "Server already started. Don't start me twice!";
@@ -69,7 +104,7 @@ public class Server {
      */
     public void stop() {
         if (started.compareAndSet(true, false)) {
-            server.stop(1);
+            transport.stop();
             executorService.shutdownNow();
         } else {
             log.warn("Attempting to stop an already stopped http server.");
@@ -84,6 +119,42 @@ public class Server {
         return uri;
     }
 
+    /**
+     * Create the executor of the given model. The {@link ExecutionModel#BOUNDED} executor throws
+     * {@link java.util.concurrent.RejectedExecutionException} for a request that finds its threads busy and its queue
+     * full, which the transport answers with 503 itself, without handing the request on.
+     */
+    static ExecutorService createExecutor(ExecutionModel model, int threads, int queue) {
+        switch (model) {
+            case CACHED:
+                return Executors.newCachedThreadPool();
+            case VIRTUAL:
+                ExecutorService virtual = createVirtualExecutor();
+                return virtual != null ? virtual : createBoundedExecutor(threads, queue);
+            case BOUNDED:
+            default:
+                return createBoundedExecutor(threads, queue);
+        }
+    }
+
+    // a virtual thread per task, through reflection as the application still runs on java 8. Null if not supported
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            log.warn("Virtual threads are not supported by java {}, falling back to the bounded executor",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private static ExecutorService createBoundedExecutor(int threads, int queue) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), new NamedThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private String createHostName() {
         String hostName = "localhost";
         try {
@@ -93,4 +164,13 @@ public class Server {
         }
         return hostName;
     }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "http-" + count.incrementAndGet());
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package com.jojos.challenge.resource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limit: holds up to burst tokens, refilled at rate tokens a second, and every request takes one.
+ * A request finding the bucket empty is told how long until the next token.
+ *
+ * The tokens are kept as the time the bucket was last full minus what has been taken since, so taking a token is a
+ * single update of one long, without a refill timer.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    // the time the bucket would be full if nothing more is taken
+    private long fullAt;
+
+    /**
+     * @param rate the tokens added every second
+     * @param burst the most tokens the bucket holds
+     */
+    TokenBucket(int rate, int burst) {
+        if (rate <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("A token bucket needs a positive rate and burst, not " + rate + " and " + burst);
+        }
+        nanosPerToken = TimeUnit.SECONDS.toNanos(1) / rate;
+        burstNanos = nanosPerToken * burst;
+        fullAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * Take a token
+     * @param now the current {@link System#nanoTime()}
+     * @return 0 if a token has been taken, otherwise the nanoseconds until there is one
+     */
+    synchronized long tryAcquire(long now) {
+        // a bucket that has been full for a while holds no more than burst tokens
+        long start = fullAt == Long.MIN_VALUE || fullAt - now < 0 ? now : fullAt;
+        long next = start + nanosPerToken;
+        if (next - now > burstNanos) {
+            return next - now - burstNanos;
+        }
+        fullAt = next;
+        return 0L;
+    }
+
+    /**
+     * @param now the current {@link System#nanoTime()}
+     * @return whether the bucket is full, and so no different from a new one
+     */
+    synchronized boolean isFull(long now) {
+        return fullAt == Long.MIN_VALUE || fullAt - now <= 0;
+    }
+}
@@ -0,0 +1,25 @@
+package com.jojos.challenge.resource;
+
+/**
+ * The http container the {@link Server} runs the resources on.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public enum Transport {
+
+    /**
+     * The http server of the JDK, {@code com.sun.net.httpserver}. A single dispatcher thread accepts the connections
+     * and parses the requests.
+     */
+    JDK,
+
+    /**
+     * Grizzly, an NIO container whose selector threads, one per core, serve the connections and hand the requests to
+     * the executor of the server.
+     */
+    GRIZZLY;
+
+    public static Transport fromString(String transport) {
+        return valueOf(transport.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,16 @@
+package com.jojos.challenge.resource;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the resource methods that store transactions, which a read-only replica refuses.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Writes {
+}
@@ -0,0 +1,158 @@
+package com.jojos.challenge.transact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TransactionStore} keeping the records in primitive on-heap columns.
+ *
+ * Every field of the record lives in its own column, and each column is split in fixed size pages so that growing
+ * the store never copies what is already there and no single huge array has to be allocated.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class HeapTransactionStore implements TransactionStore {
+
+	private static final int PAGE_SHIFT = 16;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private long[][] ids = new long[0][];
+	private double[][] amounts = new double[0][];
+	private long[][] parentIds = new long[0][];
+	private int[][] types = new int[0][];
+	private double[][] sums = new double[0][];
+	private int[][] firstChildren = new int[0][];
+	private int[][] nextSiblings = new int[0][];
+	private int size;
+
+	private final Map<String, Integer> typeOrdinals = new HashMap<>();
+	private final List<String> typeNames = new ArrayList<>();
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int append(long id, double amount, long parentId, int type) {
+		int ordinal = size;
+		int page = ordinal >>> PAGE_SHIFT;
+		if (page == ids.length) {
+			addPage();
+		}
+		int offset = ordinal & PAGE_MASK;
+		ids[page][offset] = id;
+		amounts[page][offset] = amount;
+		parentIds[page][offset] = parentId;
+		types[page][offset] = type;
+		sums[page][offset] = amount;
+		firstChildren[page][offset] = NONE;
+		nextSiblings[page][offset] = NONE;
+		size++;
+		return ordinal;
+	}
+
+	@Override
+	public long getId(int ordinal) {
+		return ids[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public double getAmount(int ordinal) {
+		return amounts[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public long getParentId(int ordinal) {
+		return parentIds[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public int getType(int ordinal) {
+		return types[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public double getSum(int ordinal) {
+		return sums[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public void setSum(int ordinal, double sum) {
+		sums[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK] = sum;
+	}
+
+	@Override
+	public int getFirstChild(int ordinal) {
+		return firstChildren[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public void setFirstChild(int ordinal, int child) {
+		firstChildren[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK] = child;
+	}
+
+	@Override
+	public int getNextSibling(int ordinal) {
+		return nextSiblings[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+	}
+
+	@Override
+	public void setNextSibling(int ordinal, int sibling) {
+		nextSiblings[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK] = sibling;
+	}
+
+	@Override
+	public int findType(String type) {
+		Integer ordinal = typeOrdinals.get(type);
+		return ordinal == null ? NONE : ordinal;
+	}
+
+	@Override
+	public int addType(String type) {
+		Integer ordinal = typeOrdinals.get(type);
+		if (ordinal == null) {
+			ordinal = typeNames.size();
+			typeNames.add(type);
+			typeOrdinals.put(type, ordinal);
+		}
+		return ordinal;
+	}
+
+	@Override
+	public String getTypeName(int type) {
+		return typeNames.get(type);
+	}
+
+	@Override
+	public int typeCount() {
+		return typeNames.size();
+	}
+
+	@Override
+	public void close() {
+		// nothing to release, the columns go away with the heap
+	}
+
+	private void addPage() {
+		int pages = ids.length + 1;
+		ids = Arrays.copyOf(ids, pages);
+		amounts = Arrays.copyOf(amounts, pages);
+		parentIds = Arrays.copyOf(parentIds, pages);
+		types = Arrays.copyOf(types, pages);
+		sums = Arrays.copyOf(sums, pages);
+		firstChildren = Arrays.copyOf(firstChildren, pages);
+		nextSiblings = Arrays.copyOf(nextSiblings, pages);
+		ids[pages - 1] = new long[PAGE_SIZE];
+		amounts[pages - 1] = new double[PAGE_SIZE];
+		parentIds[pages - 1] = new long[PAGE_SIZE];
+		types[pages - 1] = new int[PAGE_SIZE];
+		sums[pages - 1] = new double[PAGE_SIZE];
+		firstChildren[pages - 1] = new int[PAGE_SIZE];
+		nextSiblings[pages - 1] = new int[PAGE_SIZE];
+	}
+}
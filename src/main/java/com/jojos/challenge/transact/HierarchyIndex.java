@@ -0,0 +1,257 @@
+package com.jojos.challenge.transact;
+
+import java.util.Arrays;
+
+/**
+ * An Euler-tour index over the hierarchy of the transactions, answering the sum of any subtree in O(log N) right
+ * after an insert, whatever the depth and the fan-out of the hierarchy.
+ *
+ * Every tree of transactions is kept as its Euler tour, the sequence where a transaction enters before everything
+ * below it and exits right after, so that its subtree is the run of the tour between the two. A transaction enters
+ * with its amount and exits with nothing, which makes the sum of its subtree the sum of that run. Each tour is an
+ * implicit treap ordered by position, whose nodes carry the size and the sum of the tokens below them:
+ * linking a tree under a parent cuts the tour of the parent right after its entry and splices the other tour in,
+ * and the sum of a run is read in a single descent, all in O(log N) expected.
+ *
+ * Transactions are addressed by their ordinal in the {@link TransactionStore}, the entry of an ordinal being token
+ * 2 * ordinal and its exit the token after it. The treap is only ever as deep as its random priorities make it,
+ * O(log N) expected, so neither the recursion of the splits and merges nor anything else depends on the depth of
+ * the hierarchy.
+ *
+ * Not thread safe, the {@link TransactionHandler} guards every call.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class HierarchyIndex {
+
+	private static final int NIL = -1;
+
+	private int[] left = new int[0];
+	private int[] right = new int[0];
+	private int[] parent = new int[0];
+	private int[] priority = new int[0];
+	// the number of tokens and the sum of their values in the treap rooted at each token
+	private int[] size = new int[0];
+	private double[] total = new double[0];
+	private double[] value = new double[0];
+	private int tokens;
+
+	// xorshift state of the priorities. Their only job is to balance the treaps, so a fixed seed does
+	private int seed = 0x2545F491;
+
+	// the two halves of the last split
+	private int splitLeft;
+	private int splitRight;
+
+	/**
+	 * @return the number of transactions in the index
+	 */
+	int size() {
+		return tokens >>> 1;
+	}
+
+	/**
+	 * Add a transaction as a tree of its own.
+	 * @param ordinal the ordinal of the transaction, which must be the next one
+	 * @param amount the amount of the transaction
+	 */
+	void add(int ordinal, double amount) {
+		if (ordinal != size()) {
+			throw new IllegalArgumentException("Expected ordinal " + size() + " but was " + ordinal);
+		}
+		ensureCapacity(tokens + 2);
+		int enter = token(amount);
+		int exit = token(0d);
+		parent[merge(enter, exit)] = NIL;
+	}
+
+	/**
+	 * Put the tree rooted at a transaction under a parent, right after the entry of the parent.
+	 * @param child the ordinal of a transaction that is the root of its tree
+	 * @param parentOrdinal the ordinal of its parent, which must be in another tree
+	 */
+	void link(int child, int parentOrdinal) {
+		int childTour = root(child << 1);
+		int parentEnter = parentOrdinal << 1;
+		int position = rank(parentEnter);
+		split(root(parentEnter), position + 1);
+		int after = splitRight;
+		int tour = merge(merge(splitLeft, childTour), after);
+		parent[tour] = NIL;
+	}
+
+	/**
+	 * @param ordinal the ordinal of a transaction
+	 * @return the sum of the amounts of the transaction and everything below it, in O(log N)
+	 */
+	double sum(int ordinal) {
+		int enter = ordinal << 1;
+		return sum(root(enter), rank(enter), rank(enter + 1));
+	}
+
+	/**
+	 * @return whether the two transactions are in the same tree, in O(log N)
+	 */
+	boolean connected(int ordinal, int other) {
+		return root(ordinal << 1) == root(other << 1);
+	}
+
+	// a new token, alone in its treap
+	private int token(double tokenValue) {
+		int token = tokens++;
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		left[token] = NIL;
+		right[token] = NIL;
+		parent[token] = NIL;
+		priority[token] = seed;
+		size[token] = 1;
+		value[token] = tokenValue;
+		total[token] = tokenValue;
+		return token;
+	}
+
+	// the position of a token in its tour, climbing to the root of its treap
+	private int rank(int token) {
+		int position = sizeOf(left[token]);
+		for (int node = token; parent[node] != NIL; node = parent[node]) {
+			if (right[parent[node]] == node) {
+				position += sizeOf(left[parent[node]]) + 1;
+			}
+		}
+		return position;
+	}
+
+	private int root(int token) {
+		int node = token;
+		while (parent[node] != NIL) {
+			node = parent[node];
+		}
+		return node;
+	}
+
+	// the sum of the tokens from position from to position to, both included, in one descent from the root
+	private double sum(int root, int from, int to) {
+		// find the highest token in the run, every token of the run is below it
+		int node = root;
+		int offset = 0;
+		while (true) {
+			int position = offset + sizeOf(left[node]);
+			if (to < position) {
+				node = left[node];
+			} else if (from > position) {
+				offset = position + 1;
+				node = right[node];
+			} else {
+				break;
+			}
+		}
+		int top = offset + sizeOf(left[node]);
+		double sum = value[node];
+
+		// the tokens of the left subtree from position from on
+		offset = top - sizeOf(left[node]);
+		for (int token = left[node]; token != NIL; ) {
+			int position = offset + sizeOf(left[token]);
+			if (position >= from) {
+				sum += value[token] + totalOf(right[token]);
+				token = left[token];
+			} else {
+				offset = position + 1;
+				token = right[token];
+			}
+		}
+
+		// the tokens of the right subtree up to position to
+		offset = top + 1;
+		for (int token = right[node]; token != NIL; ) {
+			int position = offset + sizeOf(left[token]);
+			if (position <= to) {
+				sum += totalOf(left[token]) + value[token];
+				offset = position + 1;
+				token = right[token];
+			} else {
+				token = left[token];
+			}
+		}
+		return sum;
+	}
+
+	// split the treap rooted at a token into its first count tokens and the rest, left in splitLeft and splitRight
+	private void split(int treap, int count) {
+		if (treap == NIL) {
+			splitLeft = NIL;
+			splitRight = NIL;
+			return;
+		}
+		if (sizeOf(left[treap]) >= count) {
+			split(left[treap], count);
+			left[treap] = splitRight;
+			setParent(splitRight, treap);
+			splitRight = treap;
+		} else {
+			split(right[treap], count - sizeOf(left[treap]) - 1);
+			right[treap] = splitLeft;
+			setParent(splitLeft, treap);
+			splitLeft = treap;
+		}
+		update(treap);
+		parent[treap] = NIL;
+	}
+
+	// concatenate two treaps, returning the root of the result
+	private int merge(int first, int second) {
+		if (first == NIL) {
+			return second;
+		}
+		if (second == NIL) {
+			return first;
+		}
+		if (priority[first] > priority[second]) {
+			int merged = merge(right[first], second);
+			right[first] = merged;
+			parent[merged] = first;
+			update(first);
+			return first;
+		}
+		int merged = merge(first, left[second]);
+		left[second] = merged;
+		parent[merged] = second;
+		update(second);
+		return second;
+	}
+
+	private void update(int token) {
+		size[token] = sizeOf(left[token]) + 1 + sizeOf(right[token]);
+		total[token] = totalOf(left[token]) + value[token] + totalOf(right[token]);
+	}
+
+	private void setParent(int token, int tokenParent) {
+		if (token != NIL) {
+			parent[token] = tokenParent;
+		}
+	}
+
+	private int sizeOf(int token) {
+		return token == NIL ? 0 : size[token];
+	}
+
+	private double totalOf(int token) {
+		return token == NIL ? 0d : total[token];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= left.length) {
+			return;
+		}
+		int length = Math.max(capacity, left.length * 2);
+		left = Arrays.copyOf(left, length);
+		right = Arrays.copyOf(right, length);
+		parent = Arrays.copyOf(parent, length);
+		priority = Arrays.copyOf(priority, length);
+		size = Arrays.copyOf(size, length);
+		total = Arrays.copyOf(total, length);
+		value = Arrays.copyOf(value, length);
+	}
+}
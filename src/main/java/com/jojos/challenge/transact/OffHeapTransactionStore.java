@@ -0,0 +1,298 @@
+package com.jojos.challenge.transact;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TransactionStore} keeping the records outside of the java heap, so the size of the store doesn't affect
+ * garbage collection pauses.
+ *
+ * The records are laid out in fixed-width slots of {@link #RECORD_SIZE} bytes inside {@link ByteBuffer} segments
+ * of {@link #SEGMENT_RECORDS} records each. The segments are either direct buffers, or regions of a memory-mapped
+ * file. In the latter case the file starts with a small header holding the number of records, and the type names
+ * are appended to a sidecar {@code .types} file, so that a restarted process can reopen the file and serve
+ * immediately. Whatever is written to the mapped file survives a crash of the process, although not necessarily
+ * one of the operating system.
+ *
+ * Record layout:
+ * <pre>
+ *  0 id            long
+ *  8 amount        double
+ * 16 parent_id     long
+ * 24 sum           double
+ * 32 type ordinal  int
+ * 36 first child   int
+ * 40 next sibling  int
+ * 44 reserved      int
+ * </pre>
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class OffHeapTransactionStore implements TransactionStore {
+
+	private static final Logger log = LoggerFactory.getLogger(OffHeapTransactionStore.class);
+
+	static final int RECORD_SIZE = 48;
+	static final int SEGMENT_SHIFT = 16;
+	static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_RECORDS - 1;
+	private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_SIZE;
+
+	private static final int ID = 0;
+	private static final int AMOUNT = 8;
+	private static final int PARENT_ID = 16;
+	private static final int SUM = 24;
+	private static final int TYPE = 32;
+	private static final int FIRST_CHILD = 36;
+	private static final int NEXT_SIBLING = 40;
+
+	// the header of the mapped file: magic, format version, record size and record count
+	private static final int MAGIC = 0x54524e53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_COUNT = 12;
+
+	private ByteBuffer[] segments = new ByteBuffer[0];
+	private int size;
+
+	private final Map<String, Integer> typeOrdinals = new HashMap<>();
+	private final List<String> typeNames = new ArrayList<>();
+
+	// only set for the memory-mapped variant
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final DataOutputStream typesOutput;
+
+	/**
+	 * Create a store backed by direct buffers. Nothing survives the process.
+	 */
+	public OffHeapTransactionStore() {
+		channel = null;
+		header = null;
+		typesOutput = null;
+	}
+
+	/**
+	 * Open the store backed by the given memory-mapped file, creating it if it doesn't exist.
+	 * @param file the path of the data file. The type names are kept next to it, in a file with a .types suffix
+	 * @throws IOException if the file can't be opened or isn't a transaction store
+	 */
+	public OffHeapTransactionStore(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		if (header.getInt(0) == 0) {
+			header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD_SIZE).putInt(HEADER_COUNT, 0);
+		} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+			channel.close();
+			throw new IOException(file + " is not a transaction store of version " + VERSION);
+		}
+
+		Path typesFile = Paths.get(file + ".types");
+		if (Files.exists(typesFile)) {
+			readTypes(typesFile);
+		}
+		typesOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(typesFile,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+
+		int count = header.getInt(HEADER_COUNT);
+		while (segments.length << SEGMENT_SHIFT < count) {
+			addSegment();
+		}
+		size = count;
+		log.info("Opened transaction store {} with {} transactions and {} types", file, size, typeNames.size());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int append(long id, double amount, long parentId, int type) {
+		int ordinal = size;
+		if (ordinal >>> SEGMENT_SHIFT == segments.length) {
+			addSegment();
+		}
+		ByteBuffer segment = segment(ordinal);
+		int offset = offset(ordinal);
+		segment.putLong(offset + ID, id);
+		segment.putDouble(offset + AMOUNT, amount);
+		segment.putLong(offset + PARENT_ID, parentId);
+		segment.putDouble(offset + SUM, amount);
+		segment.putInt(offset + TYPE, type);
+		segment.putInt(offset + FIRST_CHILD, NONE);
+		segment.putInt(offset + NEXT_SIBLING, NONE);
+		size++;
+		// the record is complete before it's counted
+		if (header != null) {
+			header.putInt(HEADER_COUNT, size);
+		}
+		return ordinal;
+	}
+
+	@Override
+	public long getId(int ordinal) {
+		return segment(ordinal).getLong(offset(ordinal) + ID);
+	}
+
+	@Override
+	public double getAmount(int ordinal) {
+		return segment(ordinal).getDouble(offset(ordinal) + AMOUNT);
+	}
+
+	@Override
+	public long getParentId(int ordinal) {
+		return segment(ordinal).getLong(offset(ordinal) + PARENT_ID);
+	}
+
+	@Override
+	public int getType(int ordinal) {
+		return segment(ordinal).getInt(offset(ordinal) + TYPE);
+	}
+
+	@Override
+	public double getSum(int ordinal) {
+		return segment(ordinal).getDouble(offset(ordinal) + SUM);
+	}
+
+	@Override
+	public void setSum(int ordinal, double sum) {
+		segment(ordinal).putDouble(offset(ordinal) + SUM, sum);
+	}
+
+	@Override
+	public int getFirstChild(int ordinal) {
+		return segment(ordinal).getInt(offset(ordinal) + FIRST_CHILD);
+	}
+
+	@Override
+	public void setFirstChild(int ordinal, int child) {
+		segment(ordinal).putInt(offset(ordinal) + FIRST_CHILD, child);
+	}
+
+	@Override
+	public int getNextSibling(int ordinal) {
+		return segment(ordinal).getInt(offset(ordinal) + NEXT_SIBLING);
+	}
+
+	@Override
+	public void setNextSibling(int ordinal, int sibling) {
+		segment(ordinal).putInt(offset(ordinal) + NEXT_SIBLING, sibling);
+	}
+
+	@Override
+	public int findType(String type) {
+		Integer ordinal = typeOrdinals.get(type);
+		return ordinal == null ? NONE : ordinal;
+	}
+
+	@Override
+	public int addType(String type) {
+		Integer ordinal = typeOrdinals.get(type);
+		if (ordinal == null) {
+			if (typesOutput != null) {
+				// the name must be on disk before any record refers to it
+				try {
+					writeType(type);
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to persist type " + type, e);
+				}
+			}
+			ordinal = typeNames.size();
+			typeNames.add(type);
+			typeOrdinals.put(type, ordinal);
+		}
+		return ordinal;
+	}
+
+	@Override
+	public String getTypeName(int type) {
+		return typeNames.get(type);
+	}
+
+	@Override
+	public int typeCount() {
+		return typeNames.size();
+	}
+
+	/**
+	 * Flush the mapped file to the storage device and release it.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			for (ByteBuffer segment : segments) {
+				((MappedByteBuffer) segment).force();
+			}
+			header.force();
+			typesOutput.close();
+			channel.close();
+		}
+	}
+
+	private ByteBuffer segment(int ordinal) {
+		return segments[ordinal >>> SEGMENT_SHIFT];
+	}
+
+	private static int offset(int ordinal) {
+		return (ordinal & SEGMENT_MASK) * RECORD_SIZE;
+	}
+
+	private void addSegment() {
+		ByteBuffer segment;
+		if (channel == null) {
+			segment = ByteBuffer.allocateDirect((int) SEGMENT_BYTES);
+		} else {
+			try {
+				segment = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + segments.length * SEGMENT_BYTES, SEGMENT_BYTES);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to grow the transaction store", e);
+			}
+		}
+		segments = Arrays.copyOf(segments, segments.length + 1);
+		segments[segments.length - 1] = segment;
+	}
+
+	// a type is written as a presence flag followed by the name, since a transaction may have no type at all
+	private void writeType(String type) throws IOException {
+		typesOutput.writeBoolean(type != null);
+		if (type != null) {
+			typesOutput.writeUTF(type);
+		}
+		typesOutput.flush();
+	}
+
+	private void readTypes(Path typesFile) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(typesFile)))) {
+			while (true) {
+				String type;
+				try {
+					type = input.readBoolean() ? input.readUTF() : null;
+				} catch (EOFException e) {
+					break;
+				}
+				typeOrdinals.put(type, typeNames.size());
+				typeNames.add(type);
+			}
+		}
+	}
+}
@@ -1,18 +1,37 @@
 package com.jojos.challenge.transact;
 
+import com.jojos.challenge.json.RemoteSum;
 import com.jojos.challenge.json.Transaction;
-import com.jojos.challenge.util.Util;
+import com.jojos.challenge.json.TypeStats;
+import com.jojos.challenge.metrics.Metrics;
+import com.jojos.challenge.persist.Snapshot;
+import com.jojos.challenge.persist.SyncPolicy;
+import com.jojos.challenge.persist.WriteAheadLog;
+import com.jojos.challenge.util.Config;
+import com.jojos.challenge.util.LongBitmap;
+import com.jojos.challenge.util.LongIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.DoubleAdder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
 
 /**
  * The class performing operations on transactions, and store them in-memory
@@ -20,24 +39,49 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * The following operations are currently supported
  * Insert a transaction:
- * O(N) just because we allow a transaction with a parent_id referencing to a non-existing transaction
- * If we weren't allowing this condition we'd have O(1).
+ * O(1) amortized plus O(D), D being the number of ancestors whose sum is updated.
+ * A transaction with a parent_id referencing a non-existing transaction is parked in a pending-children index keyed
+ * by the missing parent id, so a late parent picks up its waiting children directly.
  *
  * Retrieve a transaction:
  * O(1)
  *
  * Get a list of all transaction ids that share the same specific type:
- * O(1) because we cache the type on insertion
+ * O(1) because we cache the type on insertion, plus the copy of the ids. A page of P ids from a given id on is
+ * O(log N + P).
+ *
+ * Get the count, sum, min and max of the amounts of a type:
+ * O(1), maintained on insertion.
  *
  *
  * Get the sum of all transactions that are transitively linked by their parent_id:
- * O(N) worst case. A simple cache stores each sum upon retrieval. The whole cache is invalidated on any insert
+ * O(1). Every transaction carries the sum of its subtree, which is maintained incrementally on insertion.
+ * With the hierarchy index enabled the sums are read from an Euler tour of every tree instead, in O(log N), and an
+ * insert costs O(log N) rather than O(D), which pays off for hierarchies thousands of levels deep.
  *
  * Updating an existing transaction is also not supported. As stated in the spec:
  * "transaction_id is a long specifying a new transaction"
  *
- * @implNote All transactions are stored in a sorted map because the order does matter for the client.
- * Also, the types are cached each time to achieve constant retrieval time.
+ * @implNote All transactions are stored as primitive records in a {@link TransactionStore}, addressed by an ordinal.
+ * A primitive id to ordinal index resolves the transactions, the children of a transaction are linked through the
+ * first-child/next-sibling fields of the records and the children waiting for a missing parent are chained the same
+ * way, so no edge or index entry costs a boxed object. The ids of each type are cached on insertion in compressed
+ * bitmaps keyed by id, which count them in O(1) and return them in ascending order from any id on, at about a bit
+ * per id when the ids are dense.
+ *
+ * Inserts are serialized by a single write lock, since the store and the write-ahead log have to keep the
+ * transactions in the same order. Readers never take it. The id to ordinal index is partitioned by id into stripes,
+ * each guarded by a read-write lock of its own that also guards the sums of its transactions, so a reader only
+ * contends with the readers of the same stripe and only waits for an insert while it updates a sum of that stripe.
+ * An insert updates the stripes of the ancestors it adds to one at a time, never holding two stripe locks, so a
+ * read concurrent with an insert may see it in some sums and not yet in others. Everything is visible once the
+ * insert returns.
+ *
+ * In a cluster the handler only holds the transactions of its partition, see {@link #partition(LongPredicate, RemoteSums)}.
+ * A transaction whose parent belongs to another partition is the root of a fragment of the tree, and the sum of every
+ * fragment is pushed to the owner of its parent whenever it changes, which adds it to the parent and its ancestors
+ * like the sum of a local child. The sum of a transaction is thus read in O(1) on its owner even when its subtree
+ * spans the cluster, with the contributions of the other partitions trailing by the time they take to arrive.
  *
  * @author karanikasg@gmail.com.
  */
@@ -45,89 +89,307 @@ public class TransactionHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(TransactionHandler.class);
 
-	private final ConcurrentMap<Long, Transaction> transactions;
-	private final ConcurrentMap<String, Set<Long>> transactionTypes;
-	private final ConcurrentMap<Long, Double> sumCache;
+	private final TransactionStore store;
+	// transaction id to the ordinal of its record, partitioned by id into stripes
+	private final LongIntHashMap[] ordinals;
+	// the ids of every type, indexed by the type ordinal
+	private final List<LongBitmap> transactionTypes;
+	// the names of the types, indexed by the type ordinal. Replaced as a whole when a type is added
+	private volatile String[] typeNames = new String[0];
+	// the running sum, min and max of the amounts of every type, indexed by the type ordinal
+	private double[] typeSums = new double[0];
+	private double[] typeMins = new double[0];
+	private double[] typeMaxes = new double[0];
+	// children that arrived before their parent, keyed by the parent id they are still waiting for.
+	// the value is the first of the children, the rest are chained through their next-sibling link
+	private final LongIntHashMap pendingChildren;
+	// the number of transactions waiting in the pending-children index, and the number of transactions stored. Only
+	// changed with the write lock held, and published for the readers that don't take it
+	private volatile int orphans;
+	private volatile int storedCount;
+	// whether an id belongs to the partition of this handler, and where the sums of the fragments rooted at a
+	// transaction with a parent elsewhere are pushed to. Null unless the handler is partitioned
+	private LongPredicate owns;
+	private RemoteSums remoteSums;
+	// the last sum pushed for each remote child, and the sums pushed for parents that haven't arrived yet
+	private final Map<Long, Double> remoteChildSums = new HashMap<>();
+	private final Map<Long, Double> pendingRemoteSums = new HashMap<>();
+	// every stored transaction is appended here, if durability is enabled
+	private final WriteAheadLog writeAheadLog;
+	// the transactions logged but not stored yet, in the order of the log, and their ids. Guarded by the write lock
+	private final ArrayDeque<LoggedTransaction> loggedTransactions = new ArrayDeque<>();
+	private final LongIntHashMap loggedIds = new LongIntHashMap();
+	// the sequence in the log of the last transaction stored minus its position, which only grows when a logged
+	// transaction is refused, so the position of a durable transaction is always below the durable sequence minus it
+	private volatile long sequenceOffset;
+	// where the snapshots are written, if they are enabled
+	private final Path snapshotDirectory;
+	private final Object snapshotLock = new Object();
+	private ScheduledExecutorService snapshotExecutor;
+	// the Euler tours the sums are read from, if the hierarchy index is enabled. Otherwise the sums are maintained
+	// in the store
+	private final HierarchyIndex hierarchy;
 
-	public final static TransactionHandler INSTANCE = new TransactionHandler();
+	public final static TransactionHandler INSTANCE = createInstance();
 
-	// the read-write lock are only used while updating the parent-child relationships
-	// since it may be the case where we have inconsistencies while calculating the sum (read ) AND updating the
-	// relationships on inserting a transaction.
-	private final Lock readLock;
-	private final Lock writeLock;
+	/**
+	 * Told the sum of a transaction, see {@link #readSums(int, int, SumVisitor)}
+	 */
+	public interface SumVisitor {
+		void visit(long id, double sum);
+	}
 
-	private TransactionHandler() {
-		transactions = new ConcurrentSkipListMap<>();
-		transactionTypes = new ConcurrentHashMap<>();
-		sumCache = new ConcurrentHashMap<>();
-		ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-		readLock = readWriteLock.readLock();
-		writeLock = readWriteLock.writeLock();
+	/**
+	 * Receives the sums of the fragments of the tree whose root has its parent in another partition
+	 */
+	public interface RemoteSums {
+		/**
+		 * @param parentId the id of the parent, stored in another partition
+		 * @param id the id of the root of the fragment
+		 * @param sum the sum of the fragment, including what other partitions have pushed to it
+		 * @param originId the id of the root of the fragment whose change set off the push, the fragment itself
+		 *                 unless the push is caused by one from another partition
+		 */
+		void push(long parentId, long id, double sum, long originId);
 	}
 
+	// the value of an omitted parent_id
+	public final static long NO_PARENT = 0L;
+
+	// the write lock serializes the inserts, and guards the store, the pending children and the links.
+	// the lock of each stripe guards its ordinals and the sums of its transactions, and the types lock the type index
+	private final Lock writeLock;
+	// signalled whenever a transaction is stored, for the readers of the log waiting for one
+	private final Condition appended;
+	private final ReadWriteLock[] stripes;
+	private final ReadWriteLock typesLock;
+	private final ReadWriteLock hierarchyLock;
+
+	private final Metrics metrics = Metrics.INSTANCE;
+
 	/**
-	 * Store a transaction in-memory.
-	 * Also handles the parent-child relationship.
-	 * Cyclic references between two transactions that reference each other with the parent_id are not allowed
-	 * Storing a transaction with a parent_id referencing a non-existent transaction is allowed.
-	 * @param transaction to be storeed in memory
-	 * @return true if the transaction succeeded, false otherwise
+	 * An empty handler keeping the transactions on the heap, with none of the configured persistence
 	 */
-	public boolean insert(Transaction transaction) {
+	public TransactionHandler() {
+		this(new HeapTransactionStore(), null, null);
+	}
 
-		// sanity check - don't allow any update "transaction_id is a long specifying a new transaction
-		if (transactions.containsKey(transaction.getId())) {
-			log.error("transaction_id {} already exist. We currently don't support update operations.", transaction.getId());
-			return false;
+	TransactionHandler(TransactionStore store, WriteAheadLog writeAheadLog, Path snapshotDirectory) {
+		this(store, writeAheadLog, snapshotDirectory,
+				Config.getInt("stripes", 4 * Runtime.getRuntime().availableProcessors()), hierarchyIndexEnabled());
+	}
+
+	TransactionHandler(TransactionStore store, WriteAheadLog writeAheadLog, Path snapshotDirectory, int stripeCount) {
+		this(store, writeAheadLog, snapshotDirectory, stripeCount, false);
+	}
+
+	/**
+	 * @param stripeCount the number of stripes the ids are partitioned into, rounded up to a power of two
+	 * @param hierarchyIndex whether the sums are read from a {@link HierarchyIndex} rather than maintained in the store
+	 */
+	TransactionHandler(TransactionStore store, WriteAheadLog writeAheadLog, Path snapshotDirectory, int stripeCount,
+	                   boolean hierarchyIndex) {
+		this.store = store;
+		this.writeAheadLog = writeAheadLog;
+		this.snapshotDirectory = snapshotDirectory;
+		int count = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+		ordinals = new LongIntHashMap[count];
+		stripes = new ReadWriteLock[count];
+		for (int stripe = 0; stripe < count; stripe++) {
+			ordinals[stripe] = new LongIntHashMap();
+			stripes[stripe] = new ReentrantReadWriteLock();
 		}
+		transactionTypes = new ArrayList<>();
+		pendingChildren = new LongIntHashMap();
+		writeLock = new ReentrantLock();
+		appended = writeLock.newCondition();
+		typesLock = new ReentrantReadWriteLock();
+		hierarchy = hierarchyIndex ? new HierarchyIndex() : null;
+		hierarchyLock = new ReentrantReadWriteLock();
 
-		// don't allow cyclic references between transactions, ie the parent of the transaction is not allowed to have the transaction itself as a parent
-		Transaction parentTransaction = transactions.get(transaction.getParentId());
-		if (parentTransaction != null) {
-			if (transaction.getId() == parentTransaction.getParentId()) {
-				log.error("We are not allowed to have cyclic reference between parent-child transactions." +
-						          "Parent transaction {} already contains transaction {} as parent. Not added.", parentTransaction.getId(), transaction);
-				return false;
-			}
+		// a persistent store already holds the transactions, otherwise start from the latest snapshot if there is one
+		long fromSequence = store.size();
+		if (store.size() == 0 && snapshotDirectory != null) {
+			fromSequence = load();
+		}
+		if (store.size() > 0) {
+			long start = System.currentTimeMillis();
+			rebuild();
+			log.info("Rebuilt the indexes of {} stored transactions in {} ms", store.size(), System.currentTimeMillis() - start);
 		}
+		if (writeAheadLog != null) {
+			replay(fromSequence);
+			sequenceOffset = writeAheadLog.nextSequence() - store.size();
+		}
+		storedCount = store.size();
+	}
 
-		// sanity check - also don't allow transactions having a parent_id equal with the id
-		if (transaction.getParentId() == transaction.getId()) {
-			return false;
+	/**
+	 * Create the handler from the configuration. Snapshots are enabled by the {@code snapshot.dir} option and taken
+	 * every {@code snapshot.interval} seconds, 300 by default.
+	 */
+	private static TransactionHandler createInstance() {
+		String snapshotDirectory = Config.get("snapshot.dir", null);
+		TransactionHandler handler = new TransactionHandler(createStore(), createWriteAheadLog(),
+				snapshotDirectory == null ? null : Paths.get(snapshotDirectory));
+		long interval = Config.getLong("snapshot.interval", 300L);
+		if (snapshotDirectory != null && interval > 0) {
+			handler.scheduleSnapshots(TimeUnit.SECONDS.toMillis(interval));
 		}
+		Metrics.INSTANCE.gauge("transactions_stored", "Transactions stored.", handler::size);
+		Metrics.INSTANCE.gauge("transactions_types", "Distinct transaction types.", handler::typeCount);
+		Metrics.INSTANCE.gauge("transactions_type_index_bytes", "Estimated memory of the ids of every type.", handler::typeIndexBytes);
+		Metrics.INSTANCE.gauge("transactions_orphans", "Transactions waiting for their parent to be inserted.", handler::orphanCount);
+		return handler;
+	}
 
-		// after all sanity checks have succeeded INVALIDATE the cache we have for the sum
-		sumCache.clear();
+	/**
+	 * Create the store selected by the {@code store} option:
+	 * heap (the default) for on-heap columns, offheap for direct buffers, or mapped for a memory-mapped file
+	 * at the path given by the {@code store.file} option.
+	 */
+	private static TransactionStore createStore() {
+		String mode = Config.get("store", "heap");
+		switch (mode) {
+			case "heap":
+				return new HeapTransactionStore();
+			case "offheap":
+				return new OffHeapTransactionStore();
+			case "mapped":
+				try {
+					return new OffHeapTransactionStore(Paths.get(Config.get("store.file", "transactions.db")));
+				} catch (IOException e) {
+					throw new UncheckedIOException("Unable to open the transaction store", e);
+				}
+			default:
+				throw new IllegalArgumentException("Unknown store " + mode + ". Use one of heap, offheap or mapped");
+		}
+	}
 
-		transactions.put(transaction.getId(), transaction);
+	/**
+	 * Whether the sums are read from the hierarchy index, selected by the {@code sum.index} option:
+	 * eager (the default) maintains the sum of every ancestor on insertion, tree keeps an Euler tour of every tree.
+	 */
+	private static boolean hierarchyIndexEnabled() {
+		String mode = Config.get("sum.index", "eager");
+		switch (mode) {
+			case "eager":
+				return false;
+			case "tree":
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown sum index " + mode + ". Use one of eager or tree");
+		}
+	}
 
-		// the following try-finally block needs to be write lock protected for the shake of correctness of edge cases
-		// when we are asked to calculate the sum of all child transactions while still updating the parent-child relations.
-		// this is the smallest possible block of code that need to be write-locked.
+	/**
+	 * Create the write-ahead log if the {@code wal.dir} option is set, with the sync policy of the {@code wal.sync}
+	 * option (always, interval or os) and the interval of the {@code wal.sync.interval} option in milliseconds.
+	 * @return the log or null if the transactions are not to be logged
+	 */
+	private static WriteAheadLog createWriteAheadLog() {
+		String directory = Config.get("wal.dir", null);
+		if (directory == null) {
+			return null;
+		}
 		try {
-			writeLock.lock();
-			// if transaction has a parent then add transaction to the parent's kids
-			if (parentTransaction != null) {
-				parentTransaction.addChild(transaction.getId());
+			return new WriteAheadLog(Paths.get(directory), SyncPolicy.fromString(Config.get("wal.sync", "always")),
+					Config.getLong("wal.sync.interval", 10L));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to open the write-ahead log", e);
+		}
+	}
+
+	/**
+	 * Store a transaction in-memory.
+	 * Also handles the parent-child relationship and keeps the transitive sum of every ancestor up to date.
+	 * Cyclic references between transactions that reference each other with the parent_id are not allowed
+	 * Storing a transaction with a parent_id referencing a non-existent transaction is allowed.
+	 * A parent_id of {@link #NO_PARENT} means the transaction has no parent.
+	 * If there is a write-ahead log the transaction is logged first, and only stored, and visible to anyone, once the
+	 * log is durable.
+	 * @param transaction to be storeed in memory
+	 * @return true if the transaction succeeded, false otherwise
+	 * @throws UncheckedIOException if the write-ahead log has failed, after which no transaction is accepted
+	 */
+	public boolean insert(Transaction transaction) {
+		boolean stored;
+		if (writeAheadLog == null) {
+			long locked = lockWrite();
+			try {
+				stored = store(transaction.getId(), transaction.getAmount(), transaction.getParentId(), transaction.getType());
+				appended.signalAll();
+			} finally {
+				unlockWrite(locked);
+			}
+		} else {
+			LoggedTransaction logged;
+			long locked = lockWrite();
+			try {
+				logged = log(transaction);
+			} finally {
+				unlockWrite(locked);
+			}
+			// wait for the log outside of the lock, so that concurrent inserts pile up behind a single fsync
+			if (logged != null) {
+				awaitDurable(logged.sequence);
+				storeLogged(logged.sequence);
 			}
+			stored = logged != null && logged.stored;
+		}
+		(stored ? metrics.insertsStored : metrics.insertsRejected).increment();
+		return stored;
+	}
 
-			// since we allow a transaction to reference another transaction as its parent without
-			// the parent existing in the first place we'll need to check here if the transaction
-			// we just added is a parent of any previous transactions.
-			transactions.forEach((l, d) -> {
-				if (d.getParentId() == transaction.getId()) {
-					transaction.addChild(d.getId());
+	/**
+	 * Store a batch of transactions, taking the write lock once for all of them.
+	 * The transactions are stored in order with the same rules as {@link #insert(Transaction)}, so a transaction
+	 * may reference a parent that comes later in the same batch. If there is a write-ahead log the whole batch
+	 * waits for a single sync. A null in the batch is refused like an invalid transaction.
+	 * @param transactions to be stored in memory
+	 * @return whether each transaction succeeded, in the order of the batch
+	 * @throws UncheckedIOException if the write-ahead log has failed, after which no transaction is accepted
+	 */
+	public boolean[] insertAll(List<Transaction> transactions) {
+		boolean[] results = new boolean[transactions.size()];
+		if (writeAheadLog == null) {
+			long locked = lockWrite();
+			try {
+				for (int i = 0; i < results.length; i++) {
+					Transaction transaction = transactions.get(i);
+					results[i] = transaction != null
+							&& store(transaction.getId(), transaction.getAmount(), transaction.getParentId(), transaction.getType());
 				}
-			});
-		} finally {
-			writeLock.unlock();
+				appended.signalAll();
+			} finally {
+				unlockWrite(locked);
+			}
+		} else {
+			LoggedTransaction[] logged = new LoggedTransaction[results.length];
+			long sequence = -1L;
+			long locked = lockWrite();
+			try {
+				for (int i = 0; i < results.length; i++) {
+					logged[i] = log(transactions.get(i));
+					if (logged[i] != null) {
+						sequence = logged[i].sequence;
+					}
+				}
+			} finally {
+				unlockWrite(locked);
+			}
+			if (sequence >= 0) {
+				awaitDurable(sequence);
+				storeLogged(sequence);
+			}
+			for (int i = 0; i < results.length; i++) {
+				results[i] = logged[i] != null && logged[i].stored;
+			}
 		}
-
-		// after calculating everything and BEFORE reporting success we'll need to cache the type
-		Util.addToContainedSet(transactionTypes, transaction.getType(), transaction.getId());
-
-		return true;
+		for (boolean result : results) {
+			(result ? metrics.insertsStored : metrics.insertsRejected).increment();
+		}
+		return results;
 	}
 
 	/**
@@ -136,46 +398,1037 @@ public class TransactionHandler {
 	 * @return the transaction if found, null otherwise
 	 */
 	public Transaction getTransaction(long transactionId) {
-		return transactions.get(transactionId);
+		int stripe = stripe(transactionId);
+		long locked = lockRead(stripe);
+		try {
+			int ordinal = ordinals[stripe].get(transactionId);
+			if (ordinal == LongIntHashMap.NO_VALUE) {
+				return null;
+			}
+			Transaction transaction = new Transaction(store.getAmount(ordinal),
+					typeNames[store.getType(ordinal)], store.getParentId(ordinal));
+			transaction.setId(transactionId);
+			return transaction;
+		} finally {
+			unlockRead(stripe, locked);
+		}
 	}
 
 	/**
 	 * Get the sum of all transactions that are transitively linked by their parent_id
+	 * Provides O(1) constant time since the sum of every subtree is maintained on insertion, or O(log N) with the
+	 * hierarchy index.
 	 * @param transaction_id the transaction id that acts as the parent_id for everything else.
 	 * @return the sum of the value of this transaction with all of it's children
 	 */
 	public double getSum(long transaction_id) {
-		// check cache first
-		if (sumCache.containsKey(transaction_id)) {
-			return sumCache.get(transaction_id);
+		int stripe = stripe(transaction_id);
+		long locked = lockRead(stripe);
+		try {
+			int ordinal = ordinals[stripe].get(transaction_id);
+			if (ordinal == LongIntHashMap.NO_VALUE) {
+				metrics.sumsMissing.increment();
+				return 0d;
+			}
+			metrics.sumsFound.increment();
+			return sumOf(ordinal);
+		} finally {
+			unlockRead(stripe, locked);
+		}
+	}
+
+	/**
+	 * Compute the sum of all transactions that are transitively linked by their parent_id by walking the subtree,
+	 * without relying on the maintained sums or the hierarchy index. O(S) for a subtree of S transactions and
+	 * iterative, so there is no limit to the depth it can walk, but it holds the write lock throughout. Meant for
+	 * checking the sums, {@link #getSum(long)} is what serves them.
+	 * @param transactionId the transaction id that acts as the parent_id for everything else.
+	 * @return the sum of the value of this transaction with all of it's children, 0 if there is no such transaction
+	 */
+	public double computeSum(long transactionId) {
+		long locked = lockWrite();
+		try {
+			int ordinal = ordinalOf(transactionId);
+			if (ordinal == LongIntHashMap.NO_VALUE) {
+				return 0d;
+			}
+			// depth first through the first-child/next-sibling links, with the stack of the next siblings still
+			// to visit kept on the heap
+			double sum = 0d;
+			int[] stack = new int[16];
+			int depth = 0;
+			stack[depth++] = ordinal;
+			while (depth > 0) {
+				int node = stack[--depth];
+				sum += store.getAmount(node);
+				int sibling = node == ordinal ? TransactionStore.NONE : store.getNextSibling(node);
+				int child = store.getFirstChild(node);
+				if (depth + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				if (sibling != TransactionStore.NONE) {
+					stack[depth++] = sibling;
+				}
+				if (child != TransactionStore.NONE) {
+					stack[depth++] = child;
+				}
+			}
+			return sum;
+		} finally {
+			unlockWrite(locked);
 		}
+	}
 
-		double result = 0d;
-		Transaction transaction = transactions.get(transaction_id);
-		if (transaction != null) {
-			DoubleAdder doubleAdder = new DoubleAdder();
+	/**
+	 * Retrieve many transactions in one go. The ids are grouped by stripe, so the lock of every stripe is taken once
+	 * for all of its ids.
+	 * @param transactionIds the transaction ids we are looking for
+	 * @return the transactions in the order of the ids, null where there is no transaction with the id
+	 */
+	public Transaction[] getTransactions(long[] transactionIds) {
+		Transaction[] transactions = new Transaction[transactionIds.length];
+		int[] order = orderByStripe(transactionIds);
+		for (int i = 0; i < order.length; ) {
+			int stripe = stripe(transactionIds[order[i]]);
+			long locked = lockRead(stripe);
 			try {
-				readLock.lock();
-				transaction.getChildren().forEach(aLong -> doubleAdder.add(getSum(aLong)));
+				for (; i < order.length && stripe(transactionIds[order[i]]) == stripe; i++) {
+					long id = transactionIds[order[i]];
+					int ordinal = ordinals[stripe].get(id);
+					if (ordinal != LongIntHashMap.NO_VALUE) {
+						Transaction transaction = new Transaction(store.getAmount(ordinal),
+								typeNames[store.getType(ordinal)], store.getParentId(ordinal));
+						transaction.setId(id);
+						transactions[order[i]] = transaction;
+					}
+				}
 			} finally {
-				readLock.unlock();
+				unlockRead(stripe, locked);
 			}
-			doubleAdder.add(transaction.getAmount());
-			result = doubleAdder.doubleValue();
 		}
+		return transactions;
+	}
 
-		sumCache.put(transaction_id, result);
-		return result;
+	/**
+	 * Get the sums of many transactions in one go, each as fast as {@link #getSum(long)}. The ids are grouped by stripe, so the lock of every
+	 * stripe is taken once for all of its ids.
+	 * @param transactionIds the transaction ids in question
+	 * @return the sums in the order of the ids, NaN where there is no transaction with the id
+	 */
+	public double[] getSums(long[] transactionIds) {
+		double[] sums = new double[transactionIds.length];
+		int[] order = orderByStripe(transactionIds);
+		for (int i = 0; i < order.length; ) {
+			int stripe = stripe(transactionIds[order[i]]);
+			long locked = lockRead(stripe);
+			try {
+				for (; i < order.length && stripe(transactionIds[order[i]]) == stripe; i++) {
+					int ordinal = ordinals[stripe].get(transactionIds[order[i]]);
+					if (ordinal == LongIntHashMap.NO_VALUE) {
+						metrics.sumsMissing.increment();
+						sums[order[i]] = Double.NaN;
+					} else {
+						metrics.sumsFound.increment();
+						sums[order[i]] = sumOf(ordinal);
+					}
+				}
+			} finally {
+				unlockRead(stripe, locked);
+			}
+		}
+		return sums;
 	}
 
 	/**
 	 * Get a list of all transaction ids that share the same specific type.
-	 * Provides O(1) constant time since we have already cached all types inserted.
+	 * Provides O(1) lookup since we have already cached all types inserted, plus the copy of the ids.
 	 * @param type the transaction type in question
-	 * @return a set of all transaction ids for that type
+	 * @return all transaction ids for that type in ascending order, empty if there are none
+	 */
+	public long[] getTypes(String type) {
+		typesLock.readLock().lock();
+		try {
+			int ordinal = store.findType(type);
+			return ordinal == TransactionStore.NONE ? new long[0] : transactionTypes.get(ordinal).toArray();
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get a page of the transaction ids of a type, for reading a large type a piece at a time.
+	 * O(log N + P) for a page of P ids.
+	 * @param type the transaction type in question
+	 * @param from the smallest id to return
+	 * @param limit the most ids to return
+	 * @return the ids of that type from the given one on in ascending order, empty if there are none
+	 */
+	public long[] getTypes(String type, long from, int limit) {
+		typesLock.readLock().lock();
+		try {
+			int ordinal = store.findType(type);
+			if (ordinal == TransactionStore.NONE) {
+				return new long[0];
+			}
+			return transactionTypes.get(ordinal).page(from, limit);
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Fill a page with the transaction ids of a type, for streaming a large type without copying it in one piece.
+	 * @param type the transaction type in question
+	 * @param from the smallest id to return
+	 * @param page where the ids are copied to, in ascending order
+	 * @return the number of ids copied, less than the length of the page once there are no more
+	 */
+	public int getTypes(String type, long from, long[] page) {
+		typesLock.readLock().lock();
+		try {
+			int ordinal = store.findType(type);
+			return ordinal == TransactionStore.NONE ? 0 : transactionTypes.get(ordinal).copyFrom(from, page);
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param type the transaction type in question
+	 * @return the number of transactions of that type, in O(1)
+	 */
+	public long typeSize(String type) {
+		typesLock.readLock().lock();
+		try {
+			int ordinal = store.findType(type);
+			return ordinal == TransactionStore.NONE ? 0L : transactionTypes.get(ordinal).cardinality();
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the count, sum, min and max of the amounts of the transactions of a type.
+	 * O(1), since they are maintained on insertion.
+	 * @param type the transaction type in question
+	 * @return the aggregates of that type, with a count of zero if there are none
+	 */
+	public TypeStats getTypeStats(String type) {
+		typesLock.readLock().lock();
+		try {
+			int ordinal = store.findType(type);
+			if (ordinal == TransactionStore.NONE) {
+				return new TypeStats(type, 0L, 0d, null, null);
+			}
+			return new TypeStats(type, transactionTypes.get(ordinal).cardinality(), typeSums[ordinal],
+					typeMins[ordinal], typeMaxes[ordinal]);
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return an estimate of the memory taken by the ids of every type, in bytes
+	 */
+	public long typeIndexBytes() {
+		typesLock.readLock().lock();
+		try {
+			long bytes = 0L;
+			for (LongBitmap ids : transactionTypes) {
+				bytes += ids.sizeInBytes();
+			}
+			return bytes;
+		} finally {
+			typesLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Read without a lock, so it's cheap enough for every request, e.g. the admission control and the replication lag.
+	 * @return the number of stored transactions, counting a transaction once it's completely stored
+	 */
+	public int size() {
+		return storedCount;
+	}
+
+	/**
+	 * @return the number of distinct transaction types
+	 */
+	public int typeCount() {
+		return typeNames.length;
+	}
+
+	/**
+	 * Read without a lock, like {@link #size()}
+	 * @return the number of stored transactions whose parent hasn't been inserted yet
+	 */
+	public int orphanCount() {
+		return orphans;
+	}
+
+	/**
+	 * Restrict the handler to a partition of a cluster. A transaction whose parent isn't owned by the partition
+	 * no longer waits for it, and the sum of its subtree is pushed to the owner of the parent instead, see
+	 * {@link #addRemoteSums(List)}. The transactions already stored are partitioned the same way, so the handler may
+	 * be partitioned after it has been restored, but the sums pushed to it before have to be pushed again.
+	 * Not supported with the hierarchy index.
+	 * @param owns whether an id belongs to the partition of this handler
+	 * @param remoteSums where the sums are pushed to
+	 */
+	public void partition(LongPredicate owns, RemoteSums remoteSums) {
+		if (hierarchy != null) {
+			throw new IllegalStateException("A partitioned handler needs the eager sums, not the hierarchy index");
+		}
+		long locked = lockWrite();
+		try {
+			this.owns = owns;
+			this.remoteSums = remoteSums;
+			for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+				long parentId = store.getParentId(ordinal);
+				int child = parentId == NO_PARENT || owns.test(parentId) ? LongIntHashMap.NO_VALUE : pendingChildren.remove(parentId);
+				while (child != LongIntHashMap.NO_VALUE && child != TransactionStore.NONE) {
+					int sibling = store.getNextSibling(child);
+					store.setNextSibling(child, TransactionStore.NONE);
+					orphans--;
+					child = sibling;
+				}
+			}
+		} finally {
+			unlockWrite(locked);
+		}
+	}
+
+	/**
+	 * Push the sum of every fragment rooted here with a parent in another partition, e.g. for a node of the cluster
+	 * that has been restarted and lost what had been pushed to it. Pushing a sum again is harmless.
+	 * @return the number of sums pushed
+	 */
+	public int pushRemoteSums() {
+		int pushed = 0;
+		int chunkSize = 1 << 16;
+		for (int first = 0; ; first += chunkSize) {
+			long locked = lockWrite();
+			try {
+				if (owns == null || first >= store.size()) {
+					return pushed;
+				}
+				for (int ordinal = first; ordinal < Math.min(first + chunkSize, store.size()); ordinal++) {
+					long parentId = store.getParentId(ordinal);
+					if (parentId != NO_PARENT && !owns.test(parentId)) {
+						remoteSums.push(parentId, store.getId(ordinal), store.getSum(ordinal), store.getId(ordinal));
+						pushed++;
+					}
+				}
+			} finally {
+				unlockWrite(locked);
+			}
+		}
+	}
+
+	/**
+	 * Add the sums other partitions push for the subtrees of their transactions whose parent is stored here.
+	 * Only the change since the last sum pushed for the same subtree is added, to the parent and its ancestors,
+	 * or kept until the parent arrives.
+	 * A sum pushed to the fragment whose change set it off has gone round a cycle of parents spanning partitions,
+	 * which no partition could have refused on its own. It's dropped rather than added, which would push it round
+	 * the cycle again and again.
+	 * @param sums the latest sums of the subtrees
+	 */
+	public void addRemoteSums(List<RemoteSum> sums) {
+		long locked = lockWrite();
+		try {
+			for (RemoteSum sum : sums) {
+				int parent = ordinalOf(sum.getParentId());
+				if (parent != LongIntHashMap.NO_VALUE && store.getId(fragmentRoot(parent)) == sum.getOriginId()) {
+					log.error("We are not allowed to have cyclic reference between parent-child transactions. " +
+							          "Transaction {} is an ancestor of its own parent {} through other nodes. Sum not added.",
+					          sum.getId(), sum.getParentId());
+					continue;
+				}
+				Double previous = remoteChildSums.put(sum.getId(), sum.getSum());
+				double change = sum.getSum() - (previous == null ? 0d : previous);
+				if (change == 0d) {
+					continue;
+				}
+				if (parent == LongIntHashMap.NO_VALUE) {
+					pendingRemoteSums.merge(sum.getParentId(), change, Double::sum);
+				} else {
+					addToAncestors(parent, change, sum.getOriginId());
+				}
+			}
+		} finally {
+			unlockWrite(locked);
+		}
+	}
+
+	/**
+	 * Copy the transactions in the order they have been stored from a position on, for shipping them to a replica
+	 * that stores them in the same order. If there are none yet, waits for one to be stored.
+	 * Only the transactions the write-ahead log has made durable are copied, so that a replica never holds a
+	 * transaction a crash of this handler may lose. Those waiting for the sync of the {@link SyncPolicy#INTERVAL}
+	 * policy are forced to disk rather than waited for.
+	 * The position of a transaction is the number of transactions stored before it, so a replica resumes from its
+	 * own {@link #size()}.
+	 * @param from the position of the first transaction to copy
+	 * @param ids where the ids are copied to, its length being the most transactions copied
+	 * @param amounts where the amounts are copied to
+	 * @param parentIds where the parent ids are copied to
+	 * @param types where the types are copied to
+	 * @param timeoutMillis how long to wait for a transaction to be stored
+	 * @return the number of transactions copied, 0 if none has been stored within the timeout
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws UncheckedIOException if the write-ahead log has failed
 	 */
-	public Set<Long> getTypes(String type) {
-		return transactionTypes.get(type);
+	public int readLog(int from, long[] ids, double[] amounts, long[] parentIds, String[] types, long timeoutMillis)
+			throws InterruptedException {
+		// waiting releases the write lock, so it's not recorded as held
+		writeLock.lockInterruptibly();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (store.size() <= from && remaining > 0L) {
+				remaining = appended.awaitNanos(remaining);
+			}
+			if (store.size() <= from) {
+				return 0;
+			}
+		} finally {
+			writeLock.unlock();
+		}
+
+		int durable = durableCount();
+		if (durable <= from) {
+			try {
+				writeAheadLog.sync();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to sync the write-ahead log", e);
+			}
+			durable = durableCount();
+		}
+		// stored records never change, and the count of those stored is published after them and their types,
+		// so they are copied without a lock
+		int count = Math.min(ids.length, durable - from);
+		String[] names = typeNames;
+		for (int i = 0; i < count; i++) {
+			ids[i] = store.getId(from + i);
+			amounts[i] = store.getAmount(from + i);
+			parentIds[i] = store.getParentId(from + i);
+			types[i] = names[store.getType(from + i)];
+		}
+		return count;
+	}
+
+	/**
+	 * Visit the sums the transactions at some positions of the log have changed: the sums of the transactions and of
+	 * all of their ancestors, with their current value. An ancestor shared by many of the transactions is visited
+	 * once, so a chunk of inserts to the same tree costs its distinct ancestors rather than every path to the root.
+	 * The ancestors are walked like {@link #getSum(long)} reads a sum, a stripe lock at a time, so the inserts aren't
+	 * blocked and a sum may already include inserts after the chunk.
+	 * @param from the position of the first transaction
+	 * @param count the number of transactions
+	 * @param visitor told the id and the sum of every transaction changed
+	 */
+	public void readSums(int from, int count, SumVisitor visitor) {
+		LongIntHashMap visited = new LongIntHashMap(count * 2);
+		int stored = storedCount;
+		for (int position = from; position < from + count && position < stored; position++) {
+			// up to the root, or to an ancestor already visited along with all of its own ancestors
+			int ordinal = position;
+			long id = store.getId(ordinal);
+			while (ordinal != TransactionStore.NONE && visited.put(ordinal, ordinal) == LongIntHashMap.NO_VALUE) {
+				int stripe = stripe(id);
+				long locked = lockRead(stripe);
+				double sum;
+				try {
+					sum = sumOf(ordinal);
+				} finally {
+					unlockRead(stripe, locked);
+				}
+				visitor.visit(id, sum);
+				id = store.getParentId(ordinal);
+				ordinal = id == NO_PARENT ? TransactionStore.NONE : lookUp(id);
+			}
+		}
+	}
+
+	/**
+	 * Write a snapshot of the stored transactions and delete the segments of the write-ahead log it makes obsolete.
+	 * Inserts are only blocked while the log is rolled over to a new segment. The records stored by then are copied
+	 * with no lock held, which is enough for a consistent image since stored records never change, so neither the
+	 * inserts nor the readers are blocked while the snapshot is written to disk.
+	 * @return the number of transactions in the snapshot
+	 * @throws IOException if the snapshot can't be written
+	 */
+	public int snapshot() throws IOException {
+		if (snapshotDirectory == null) {
+			throw new IllegalStateException("Snapshots are not enabled");
+		}
+		synchronized (snapshotLock) {
+			long start = System.currentTimeMillis();
+			int size;
+			int typeCount;
+			long sequence;
+			long rollLocked = lockWrite();
+			try {
+				size = store.size();
+				typeCount = typeNames.length;
+				sequence = writeAheadLog == null ? size : writeAheadLog.roll();
+				// the transactions still waiting for the log are replayed after the snapshot
+				if (!loggedTransactions.isEmpty()) {
+					sequence = loggedTransactions.peek().sequence;
+				}
+			} finally {
+				unlockWrite(rollLocked);
+			}
+
+			long bytes;
+			try (Snapshot.Writer writer = Snapshot.write(snapshotDirectory, sequence, typeCount, size)) {
+				String[] names = typeNames;
+				for (int type = 0; type < typeCount; type++) {
+					writer.writeType(names[type]);
+				}
+
+				// stored records never change, and those up to the size are stored before the roll lock was let go,
+				// so they are copied without a lock
+				for (int ordinal = 0; ordinal < size; ordinal++) {
+					writer.writeRecord(store.getId(ordinal), store.getAmount(ordinal), store.getParentId(ordinal),
+							store.getType(ordinal));
+				}
+				bytes = writer.commit();
+			}
+
+			int deleted = writeAheadLog == null ? 0 : writeAheadLog.truncate(sequence);
+			log.info("Wrote a snapshot of {} transactions ({} bytes) in {} ms, deleted {} log segments",
+					size, bytes, System.currentTimeMillis() - start, deleted);
+			return size;
+		}
+	}
+
+	/**
+	 * Take a snapshot in the background at a fixed interval
+	 * @param intervalMillis the time between the end of a snapshot and the start of the next one
+	 */
+	public void scheduleSnapshots(long intervalMillis) {
+		snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "snapshotter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotExecutor.scheduleWithFixedDelay(() -> {
+			try {
+				snapshot();
+			} catch (Exception e) {
+				log.error("Unable to write a snapshot. {}", e.getMessage());
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Release the store and the write-ahead log. Both are flushed to disk if they are persistent.
+	 */
+	public void close() {
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdown();
+			try {
+				snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		long locked = lockWrite();
+		try {
+			if (writeAheadLog != null) {
+				writeAheadLog.close();
+			}
+			store.close();
+		} catch (IOException e) {
+			log.error("Unable to close the transaction store. {}", e.getMessage());
+		} finally {
+			unlockWrite(locked);
+		}
+	}
+
+	// validate and store a transaction, with the write lock held
+	private boolean store(long id, double amount, long parentId, String typeName) {
+
+		// sanity check - don't allow transactions having a parent_id equal with the id
+		if (parentId == id) {
+			return false;
+		}
+
+		// sanity check - don't allow any update "transaction_id is a long specifying a new transaction
+		if (ordinalOf(id) != LongIntHashMap.NO_VALUE) {
+			log.error("transaction_id {} already exist. We currently don't support update operations.", id);
+			return false;
+		}
+
+		// don't allow cyclic references between transactions, ie none of the ancestors of the transaction
+		// is allowed to have the transaction itself as a parent. Such an ancestor would be waiting for the
+		// transaction, so there is nothing to look for unless some transaction does
+		int parent = parentId == NO_PARENT ? TransactionStore.NONE : ordinalOf(parentId);
+		int waitingChild = pendingChildren.get(id);
+		if (parent != TransactionStore.NONE && waitingChild != LongIntHashMap.NO_VALUE) {
+			int ancestor = findCycle(id, parent, waitingChild);
+			if (ancestor != TransactionStore.NONE) {
+				log.error("We are not allowed to have cyclic reference between parent-child transactions." +
+						          "Ancestor transaction {} already contains transaction {} as parent. Not added.", store.getId(ancestor), id);
+				return false;
+			}
+		}
+
+		int type = addType(typeName);
+		int ordinal = store.append(id, amount, parentId, type);
+
+		// since we allow a transaction to reference another transaction as its parent without
+		// the parent existing in the first place we'll need to check here if the transaction
+		// we just added is a parent of any previous transactions. Their subtrees are already summed up.
+		// this is done before the transaction is visible to the readers, so its own sum needs no lock
+		if (owns != null) {
+			Double remote = pendingRemoteSums.remove(id);
+			if (remote != null) {
+				store.setSum(ordinal, store.getSum(ordinal) + remote);
+			}
+		}
+		if (waitingChild != LongIntHashMap.NO_VALUE) {
+			pendingChildren.remove(id);
+			double subtreeSum = store.getSum(ordinal);
+			for (int child = waitingChild; child != TransactionStore.NONE; child = store.getNextSibling(child)) {
+				subtreeSum += store.getSum(child);
+				orphans--;
+			}
+			store.setFirstChild(ordinal, waitingChild);
+			if (hierarchy == null) {
+				store.setSum(ordinal, subtreeSum);
+			}
+		}
+
+		// the tours are linked before the transaction is visible, so that a reader finding it finds its tour too
+		if (hierarchy != null) {
+			hierarchyLock.writeLock().lock();
+			try {
+				hierarchy.add(ordinal, amount);
+				if (waitingChild != LongIntHashMap.NO_VALUE) {
+					for (int child = waitingChild; child != TransactionStore.NONE; child = store.getNextSibling(child)) {
+						hierarchy.link(child, ordinal);
+					}
+				}
+				if (parent != TransactionStore.NONE) {
+					hierarchy.link(ordinal, parent);
+				}
+			} finally {
+				hierarchyLock.writeLock().unlock();
+			}
+		}
+
+		int stripe = stripe(id);
+		Lock stripeLock = stripes[stripe].writeLock();
+		stripeLock.lock();
+		try {
+			ordinals[stripe].put(id, ordinal);
+		} finally {
+			stripeLock.unlock();
+		}
+
+		// if transaction has a parent then add transaction to the parent's kids and push the new subtree
+		// up the ancestor chain, one stripe at a time. Otherwise park it until the parent arrives
+		if (parent != TransactionStore.NONE) {
+			store.setNextSibling(ordinal, store.getFirstChild(parent));
+			store.setFirstChild(parent, ordinal);
+			if (hierarchy == null) {
+				addToAncestors(parent, store.getSum(ordinal), NO_PARENT);
+			}
+		} else if (owns != null && parentId != NO_PARENT && !owns.test(parentId)) {
+			// the parent is in another partition, which is told of the new fragment instead
+			remoteSums.push(parentId, id, store.getSum(ordinal), id);
+		} else if (parentId != NO_PARENT) {
+			int sibling = pendingChildren.put(parentId, ordinal);
+			store.setNextSibling(ordinal, sibling == LongIntHashMap.NO_VALUE ? TransactionStore.NONE : sibling);
+			orphans++;
+		}
+
+		// after calculating everything and BEFORE reporting success we'll need to cache the type
+		typesLock.writeLock().lock();
+		try {
+			transactionTypes.get(type).add(id);
+			aggregate(type, amount);
+		} finally {
+			typesLock.writeLock().unlock();
+		}
+		storedCount = store.size();
+		return true;
+	}
+
+	// add to the sum of a transaction and of its ancestors, pushing the new sum of the fragment on if its root has a
+	// parent in another partition. The origin is the fragment that set off a pushed sum, NO_PARENT for a local change
+	private void addToAncestors(int parent, double amount, long originId) {
+		int root = parent;
+		for (int ancestor = parent; ancestor != TransactionStore.NONE; ancestor = getParent(ancestor)) {
+			addToSum(ancestor, amount);
+			root = ancestor;
+		}
+		long rootParentId = store.getParentId(root);
+		if (owns != null && rootParentId != NO_PARENT && !owns.test(rootParentId)) {
+			long rootId = store.getId(root);
+			remoteSums.push(rootParentId, rootId, store.getSum(root), originId == NO_PARENT ? rootId : originId);
+		}
+	}
+
+	// the furthest ancestor stored here, the root of the fragment of the tree the transaction belongs to
+	private int fragmentRoot(int ordinal) {
+		int root = ordinal;
+		for (int ancestor = getParent(ordinal); ancestor != TransactionStore.NONE; ancestor = getParent(ancestor)) {
+			root = ancestor;
+		}
+		return root;
+	}
+
+	// the ancestor of the parent that is waiting for the transaction, which would close a cycle, or NONE.
+	// O(D) walking up from the parent, or O(C log N) for C waiting children with the hierarchy index, since a
+	// waiting child is an ancestor of the parent exactly when they are in the same tree
+	private int findCycle(long id, int parent, int waitingChild) {
+		if (hierarchy != null) {
+			for (int child = waitingChild; child != TransactionStore.NONE; child = store.getNextSibling(child)) {
+				if (hierarchy.connected(child, parent)) {
+					return child;
+				}
+			}
+			return TransactionStore.NONE;
+		}
+		for (int ancestor = parent; ancestor != TransactionStore.NONE; ancestor = getParent(ancestor)) {
+			if (id == store.getParentId(ancestor)) {
+				return ancestor;
+			}
+		}
+		return TransactionStore.NONE;
+	}
+
+	// the sum of the subtree of a visible transaction, under the lock of its stripe
+	private double sumOf(int ordinal) {
+		if (hierarchy == null) {
+			return store.getSum(ordinal);
+		}
+		hierarchyLock.readLock().lock();
+		try {
+			return hierarchy.sum(ordinal);
+		} finally {
+			hierarchyLock.readLock().unlock();
+		}
 	}
 
+	// intern a type, with the write lock held, publishing its name and an empty index to the readers if it's new
+	private int addType(String typeName) {
+		typesLock.writeLock().lock();
+		try {
+			int type = store.addType(typeName);
+			if (type == transactionTypes.size()) {
+				transactionTypes.add(new LongBitmap());
+				growTypeAggregates(type + 1);
+				String[] names = Arrays.copyOf(typeNames, type + 1);
+				names[type] = typeName;
+				typeNames = names;
+			}
+			return type;
+		} finally {
+			typesLock.writeLock().unlock();
+		}
+	}
+
+	// add an amount to the aggregates of its type, with the types lock held
+	private void aggregate(int type, double amount) {
+		typeSums[type] += amount;
+		typeMins[type] = Math.min(typeMins[type], amount);
+		typeMaxes[type] = Math.max(typeMaxes[type], amount);
+	}
+
+	// make room for the aggregates of the given number of types, the new ones starting empty
+	private void growTypeAggregates(int typeCount) {
+		if (typeCount <= typeSums.length) {
+			return;
+		}
+		int length = Math.max(typeCount, typeSums.length * 2);
+		int first = typeSums.length;
+		typeSums = Arrays.copyOf(typeSums, length);
+		typeMins = Arrays.copyOf(typeMins, length);
+		typeMaxes = Arrays.copyOf(typeMaxes, length);
+		Arrays.fill(typeMins, first, length, Double.POSITIVE_INFINITY);
+		Arrays.fill(typeMaxes, first, length, Double.NEGATIVE_INFINITY);
+	}
+
+	// add to the sum of a visible transaction, under the lock of its stripe
+	private void addToSum(int ordinal, double amount) {
+		Lock stripeLock = stripes[stripe(store.getId(ordinal))].writeLock();
+		stripeLock.lock();
+		try {
+			store.setSum(ordinal, store.getSum(ordinal) + amount);
+		} finally {
+			stripeLock.unlock();
+		}
+	}
+
+	// the stripe of an id. The id is mixed first, since sequential ids would otherwise share the low bits
+	private int stripe(long id) {
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (stripes.length - 1);
+	}
+
+	// the indexes of the ids ordered by their stripe, counting sorted
+	private int[] orderByStripe(long[] ids) {
+		int[] starts = new int[stripes.length + 1];
+		for (long id : ids) {
+			starts[stripe(id) + 1]++;
+		}
+		for (int stripe = 0; stripe < stripes.length; stripe++) {
+			starts[stripe + 1] += starts[stripe];
+		}
+		int[] order = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			order[starts[stripe(ids[i])]++] = i;
+		}
+		return order;
+	}
+
+	// the ordinal of a transaction, with the write lock held. Only inserts change the ordinals, so they are read
+	// without the lock of the stripe
+	private int ordinalOf(long id) {
+		return ordinals[stripe(id)].get(id);
+	}
+
+	// the ordinal of a transaction, or NONE, without the write lock held
+	private int lookUp(long id) {
+		int stripe = stripe(id);
+		long locked = lockRead(stripe);
+		try {
+			return ordinals[stripe].get(id);
+		} finally {
+			unlockRead(stripe, locked);
+		}
+	}
+
+	// take the read lock of a stripe, recording the wait. The time it has been acquired is passed back to unlockRead
+	private long lockRead(int stripe) {
+		long start = System.nanoTime();
+		stripes[stripe].readLock().lock();
+		long acquired = System.nanoTime();
+		metrics.readLockWait.record(acquired - start);
+		return acquired;
+	}
+
+	private void unlockRead(int stripe, long acquired) {
+		stripes[stripe].readLock().unlock();
+		metrics.readLockHold.record(System.nanoTime() - acquired);
+	}
+
+	// take the write lock, recording the wait. The time it has been acquired is passed back to unlockWrite
+	private long lockWrite() {
+		long start = System.nanoTime();
+		writeLock.lock();
+		long acquired = System.nanoTime();
+		metrics.writeLockWait.record(acquired - start);
+		return acquired;
+	}
+
+	private void unlockWrite(long acquired) {
+		writeLock.unlock();
+		metrics.writeLockHold.record(System.nanoTime() - acquired);
+	}
+
+	// check a transaction and append it to the write-ahead log, with the write lock held. Its id is reserved until
+	// it's stored, so that it isn't logged twice. Returns null if the transaction is refused
+	private LoggedTransaction log(Transaction transaction) {
+		if (transaction == null) {
+			return null;
+		}
+		long id = transaction.getId();
+		if (transaction.getParentId() == id) {
+			return null;
+		}
+		if (loggedIds.containsKey(id) || ordinalOf(id) != LongIntHashMap.NO_VALUE) {
+			log.error("transaction_id {} already exist. We currently don't support update operations.", id);
+			return null;
+		}
+		long sequence;
+		try {
+			sequence = writeAheadLog.append(id, transaction.getAmount(), transaction.getParentId(), transaction.getType());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to append transaction " + id + " to the write-ahead log", e);
+		}
+		LoggedTransaction logged = new LoggedTransaction(sequence, transaction);
+		loggedTransactions.add(logged);
+		loggedIds.put(id, 0);
+		return logged;
+	}
+
+	// store the logged transactions up to a sequence the log has made durable, in the order of the log. Whoever takes
+	// the lock first stores the transactions of everyone that has waited for the same sync
+	private void storeLogged(long sequence) {
+		long locked = lockWrite();
+		try {
+			while (!loggedTransactions.isEmpty() && loggedTransactions.peek().sequence <= sequence) {
+				LoggedTransaction logged = loggedTransactions.poll();
+				Transaction transaction = logged.transaction;
+				loggedIds.remove(transaction.getId());
+				// the checks of the log don't see a cycle closed by transactions logged together, they are refused here
+				// and again on replay
+				sequenceOffset = logged.sequence - store.size();
+				logged.stored = store(transaction.getId(), transaction.getAmount(), transaction.getParentId(), transaction.getType());
+			}
+			appended.signalAll();
+		} finally {
+			unlockWrite(locked);
+		}
+	}
+
+	// the number of stored transactions the write-ahead log has made durable. All of them, unless the sync is left
+	// to the interval of the log
+	private int durableCount() {
+		int stored = storedCount;
+		if (writeAheadLog == null) {
+			return stored;
+		}
+		return (int) Math.max(0L, Math.min(stored, writeAheadLog.durableSequence() - sequenceOffset));
+	}
+
+	// a transaction is never stored unless it's durable, so a failed log fails the insert rather than refusing it
+	private void awaitDurable(long sequence) {
+		try {
+			writeAheadLog.awaitDurable(sequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to write transaction " + sequence + " to the write-ahead log", e);
+		}
+	}
+
+	// load the latest snapshot into the empty store, returning the sequence of the first transaction it's missing
+	private long load() {
+		try {
+			Path latest = Snapshot.latest(snapshotDirectory);
+			if (latest == null) {
+				return 0L;
+			}
+			long start = System.currentTimeMillis();
+			long sequence = Snapshot.read(latest, new Snapshot.Loader() {
+				@Override
+				public void type(String type) {
+					store.addType(type);
+				}
+
+				@Override
+				public void record(long id, double amount, long parentId, int type) {
+					store.append(id, amount, parentId, type);
+				}
+			});
+			log.info("Loaded {} transactions from snapshot {} in {} ms", store.size(), latest, System.currentTimeMillis() - start);
+			return sequence;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to load the latest snapshot", e);
+		}
+	}
+
+	// replay the write-ahead log on top of what the store already holds. The store keeps the transactions in the
+	// order they have been logged, so the sequence of the first transaction it's missing is its size, or the
+	// sequence of the snapshot it has been loaded from
+	private void replay(long fromSequence) {
+		long start = System.currentTimeMillis();
+		if (fromSequence > writeAheadLog.nextSequence()) {
+			log.warn("The store holds {} transactions but only {} have been logged", fromSequence, writeAheadLog.nextSequence());
+		}
+		try {
+			long replayed = writeAheadLog.replay(fromSequence, (sequence, id, amount, parentId, type) -> {
+				if (!store(id, amount, parentId, type)) {
+					log.warn("Skipped logged transaction {} while replaying the write-ahead log", id);
+				}
+			});
+			log.info("Replayed {} transactions of the write-ahead log in {} ms", replayed, System.currentTimeMillis() - start);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to replay the write-ahead log", e);
+		}
+	}
+
+	// rebuild the on-heap indexes of the records already in the store, along with their links and sums.
+	// the links and sums are recomputed from the parent ids rather than trusted, since a crash in the middle of an
+	// insert may have left them half updated. Everything is done in O(N) and without recursion.
+	private void rebuild() {
+		int size = store.size();
+		for (LongIntHashMap stripe : ordinals) {
+			stripe.ensureCapacity(size / ordinals.length + 1);
+		}
+		String[] names = new String[store.typeCount()];
+		for (int type = 0; type < names.length; type++) {
+			names[type] = store.getTypeName(type);
+			transactionTypes.add(new LongBitmap());
+		}
+		typeNames = names;
+		growTypeAggregates(names.length);
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			ordinals[stripe(store.getId(ordinal))].put(store.getId(ordinal), ordinal);
+			transactionTypes.get(store.getType(ordinal)).add(store.getId(ordinal));
+			aggregate(store.getType(ordinal), store.getAmount(ordinal));
+			store.setFirstChild(ordinal, TransactionStore.NONE);
+			store.setNextSibling(ordinal, TransactionStore.NONE);
+			store.setSum(ordinal, store.getAmount(ordinal));
+		}
+
+		// resolve every parent once, the same array is reused for the bottom up summing
+		int[] parents = new int[size];
+		int[] remainingChildren = new int[size];
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			int parent = getParent(ordinal);
+			parents[ordinal] = parent;
+			if (parent != TransactionStore.NONE) {
+				store.setNextSibling(ordinal, store.getFirstChild(parent));
+				store.setFirstChild(parent, ordinal);
+				remainingChildren[parent]++;
+			} else if (store.getParentId(ordinal) != NO_PARENT) {
+				int sibling = pendingChildren.put(store.getParentId(ordinal), ordinal);
+				store.setNextSibling(ordinal, sibling == LongIntHashMap.NO_VALUE ? TransactionStore.NONE : sibling);
+				orphans++;
+			}
+		}
+
+		// sum bottom up: a transaction is complete once all of its children have been added to it
+		int[] complete = new int[size];
+		int count = 0;
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			if (remainingChildren[ordinal] == 0) {
+				complete[count++] = ordinal;
+			}
+		}
+		while (count > 0) {
+			int ordinal = complete[--count];
+			int parent = parents[ordinal];
+			if (parent != TransactionStore.NONE) {
+				store.setSum(parent, store.getSum(parent) + store.getSum(ordinal));
+				if (--remainingChildren[parent] == 0) {
+					complete[count++] = parent;
+				}
+			}
+		}
+
+		// every transaction is a tour of its own until it's linked under its parent, so they link in any order
+		if (hierarchy != null) {
+			for (int ordinal = 0; ordinal < size; ordinal++) {
+				hierarchy.add(ordinal, store.getAmount(ordinal));
+			}
+			for (int ordinal = 0; ordinal < size; ordinal++) {
+				if (parents[ordinal] != TransactionStore.NONE) {
+					hierarchy.link(ordinal, parents[ordinal]);
+				}
+			}
+		}
+	}
+
+	// the ordinal of the parent of a stored transaction, or NONE if it is a root or its parent hasn't arrived yet
+	private int getParent(int ordinal) {
+		long parentId = store.getParentId(ordinal);
+		return parentId == NO_PARENT ? TransactionStore.NONE : ordinalOf(parentId);
+	}
+
+	// a transaction appended to the write-ahead log, waiting for it to be durable before it's stored
+	private static class LoggedTransaction {
+		final long sequence;
+		final Transaction transaction;
+		boolean stored;
+
+		LoggedTransaction(long sequence, Transaction transaction) {
+			this.sequence = sequence;
+			this.transaction = transaction;
+		}
+	}
 }
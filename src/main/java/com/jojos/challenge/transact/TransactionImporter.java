@@ -0,0 +1,164 @@
+package com.jojos.challenge.transact;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.challenge.json.ImportResult;
+import com.jojos.challenge.json.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Bulk import of newline-delimited json transactions, one { "id":long,"amount":double,"type":string,"parent_id":long }
+ * object per line.
+ *
+ * The input is read token by token with a streaming {@link JsonParser} and stored in chunks through
+ * {@link TransactionHandler#insertAll(List)}, so only one chunk is ever held in memory no matter how big the input is,
+ * and children, types and sums stay consistent exactly as if the transactions had been inserted one by one.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class TransactionImporter {
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionImporter.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 10_000;
+	// how often the progress of an import is logged
+	private static final long PROGRESS_INTERVAL = 1_000_000L;
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final Function<List<Transaction>, boolean[]> insertAll;
+	private final int chunkSize;
+
+	public TransactionImporter(TransactionHandler handler) {
+		this(handler, DEFAULT_CHUNK_SIZE);
+	}
+
+	public TransactionImporter(TransactionHandler handler, int chunkSize) {
+		this(handler::insertAll, chunkSize);
+	}
+
+	/**
+	 * @param insertAll stores a chunk of transactions, returning whether each one succeeded like
+	 * {@link TransactionHandler#insertAll(List)}, e.g. across the nodes of a cluster
+	 * @param chunkSize the number of transactions stored at a time
+	 */
+	public TransactionImporter(Function<List<Transaction>, boolean[]> insertAll, int chunkSize) {
+		this.insertAll = insertAll;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Import every transaction of the input. The import stops at the first malformed line, keeping whatever has
+	 * been imported before it.
+	 * @param input newline-delimited json transactions. It is not closed
+	 * @return how many transactions have been inserted and rejected, and why the import stopped early if it did
+	 */
+	public ImportResult importFrom(InputStream input) {
+		long start = System.currentTimeMillis();
+		long inserted = 0L;
+		long rejected = 0L;
+		long nextProgress = PROGRESS_INTERVAL;
+		String error = null;
+		List<Transaction> chunk = new ArrayList<>(chunkSize);
+
+		try (JsonParser parser = jsonFactory.createParser(input)) {
+			parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			while (true) {
+				Transaction transaction;
+				try {
+					transaction = next(parser);
+				} catch (IOException e) {
+					error = e.getMessage();
+					log.error("Stopping the import at line {}. {}", parser.getCurrentLocation().getLineNr(), error);
+					transaction = null;
+				}
+				if (transaction != null) {
+					chunk.add(transaction);
+				}
+				if (chunk.size() == chunkSize || (transaction == null && !chunk.isEmpty())) {
+					for (boolean result : insertAll.apply(chunk)) {
+						if (result) {
+							inserted++;
+						} else {
+							rejected++;
+						}
+					}
+					chunk.clear();
+					if (inserted + rejected >= nextProgress) {
+						log.info("Imported {} transactions, rejected {} so far", inserted, rejected);
+						nextProgress += PROGRESS_INTERVAL;
+					}
+				}
+				if (transaction == null) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			error = e.getMessage();
+		}
+
+		log.info("Imported {} transactions and rejected {} in {} ms", inserted, rejected, System.currentTimeMillis() - start);
+		return new ImportResult(inserted, rejected, error);
+	}
+
+	// the next transaction of the input, or null at its end
+	private static Transaction next(JsonParser parser) throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == null) {
+			return null;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new JsonParseException("Expected a transaction object but found " + token, parser.getCurrentLocation());
+		}
+
+		long id = 0L;
+		boolean hasId = false;
+		double amount = 0d;
+		String type = null;
+		long parentId = TransactionHandler.NO_PARENT;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if (value == JsonToken.VALUE_NULL) {
+				continue;
+			}
+			switch (field) {
+				case "id":
+					id = parser.getLongValue();
+					hasId = true;
+					break;
+				case "amount":
+					amount = parser.getDoubleValue();
+					break;
+				case "type":
+					// the text of an object or an array would be its first token, with the rest of it read as fields
+					if (value != JsonToken.VALUE_STRING) {
+						throw new JsonParseException("Expected a string type but found " + value, parser.getCurrentLocation());
+					}
+					type = parser.getText();
+					break;
+				case "parent_id":
+					parentId = parser.getLongValue();
+					break;
+				default:
+					parser.skipChildren();
+			}
+		}
+		if (!hasId) {
+			throw new JsonParseException("A transaction without an id", parser.getCurrentLocation());
+		}
+
+		Transaction transaction = new Transaction(amount, type, parentId);
+		transaction.setId(id);
+		return transaction;
+	}
+}
@@ -0,0 +1,71 @@
+package com.jojos.challenge.transact;
+
+import java.io.Closeable;
+
+/**
+ * The storage engine behind the {@link TransactionHandler}.
+ *
+ * Transactions are kept as fixed-width records addressed by a dense ordinal, assigned in insertion order.
+ * A record holds the id, the amount, the parent_id, the ordinal of the type, the maintained sum of the subtree
+ * and the first-child/next-sibling links that make up the children of the record.
+ * Types are interned to a dense type ordinal as well, so no record carries a string.
+ *
+ * A store may be persistent, in which case it is opened with the records it already holds. The links and sums of
+ * such records are rebuilt by the {@link TransactionHandler} on startup.
+ *
+ * Implementations are not required to be thread safe, the {@link TransactionHandler} guards every call. They must
+ * however never move a record once it's been appended, since the handler reads and updates the records readers can
+ * see under locks of their own while another record is appended.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public interface TransactionStore extends Closeable {
+
+	// the value of a link or ordinal that points nowhere
+	int NONE = -1;
+
+	/**
+	 * @return the number of records in the store, which is also the ordinal the next record will get
+	 */
+	int size();
+
+	/**
+	 * Add a new record with no links and a sum equal to its amount.
+	 * @return the ordinal of the new record
+	 */
+	int append(long id, double amount, long parentId, int type);
+
+	long getId(int ordinal);
+
+	double getAmount(int ordinal);
+
+	long getParentId(int ordinal);
+
+	int getType(int ordinal);
+
+	double getSum(int ordinal);
+
+	void setSum(int ordinal, double sum);
+
+	int getFirstChild(int ordinal);
+
+	void setFirstChild(int ordinal, int child);
+
+	int getNextSibling(int ordinal);
+
+	void setNextSibling(int ordinal, int sibling);
+
+	/**
+	 * @return the ordinal of the type or {@link #NONE} if no transaction has been stored with this type
+	 */
+	int findType(String type);
+
+	/**
+	 * @return the ordinal of the type, interning it if it's not already known
+	 */
+	int addType(String type);
+
+	String getTypeName(int type);
+
+	int typeCount();
+}
@@ -0,0 +1,53 @@
+package com.jojos.challenge.util;
+
+/**
+ * Startup configuration of the application.
+ *
+ * Every option is a system property prefixed with {@link #PREFIX}, e.g. {@code -Dtransactions.store=mapped}.
+ * The same options can be passed to the application as {@code --store=mapped}, see {@link #parseArgs(String[])}.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Config {
+
+    public static final String PREFIX = "transactions.";
+
+    /**
+     * Turn every {@code --key=value} argument into the {@code transactions.key} system property.
+     * A {@code --key} without a value sets the property to true.
+     * @param args the command line arguments
+     * @return the number of arguments consumed, ie the index of the first argument that isn't an option
+     */
+    public static int parseArgs(String[] args) {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            String option = args[i].substring(2);
+            int separator = option.indexOf('=');
+            if (separator < 0) {
+                System.setProperty(PREFIX + option, "true");
+            } else {
+                System.setProperty(PREFIX + option.substring(0, separator), option.substring(separator + 1));
+            }
+        }
+        return i;
+    }
+
+    public static String get(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
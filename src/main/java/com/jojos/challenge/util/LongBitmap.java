@@ -0,0 +1,326 @@
+package com.jojos.challenge.util;
+
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of longs, after the layout of Roaring bitmaps. The values are split by their high 48 bits into
+ * containers of up to 65536 values each, whose low 16 bits are kept either as a sorted array of chars, while the
+ * container holds up to 4096 of them, or as a plain bitmap of 8 KB once it holds more. Dense values cost about a bit
+ * each and sparse ones two bytes, instead of the eight bytes of a long.
+ *
+ * The cardinality is maintained on insertion, the values are read in ascending order from any value on, and two
+ * bitmaps are intersected container by container without expanding them.
+ * The class is not thread safe, callers are expected to guard it with their own lock.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LongBitmap {
+
+    // an array container holding more values than this is larger than a bitmap container
+    private static final int ARRAY_MAX = 4096;
+
+    // the high 48 bits of the values of each container, in ascending order
+    private long[] keys;
+    private Container[] containers;
+    private int size;
+    private long cardinality;
+
+    public LongBitmap() {
+        keys = new long[4];
+        containers = new Container[4];
+    }
+
+    /**
+     * @return whether the value has been added, false if it was already in the bitmap
+     */
+    public boolean add(long value) {
+        long key = value >> 16;
+        char low = (char) value;
+        int index = indexOf(key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer(new char[4], 0));
+        } else if (containers[index].contains(low)) {
+            return false;
+        }
+        containers[index] = containers[index].add(low);
+        cardinality++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        int index = indexOf(value >> 16);
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * @return the number of values, in O(1)
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the values in both bitmaps, as a new bitmap
+     */
+    public LongBitmap and(LongBitmap other) {
+        LongBitmap result = new LongBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.insert(result.size, keys[i], container);
+                    result.cardinality += container.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy the values greater than or equal to from, in ascending order, until the page is full
+     * @return the number of values copied
+     */
+    public int copyFrom(long from, long[] page) {
+        int index = indexOf(from >> 16);
+        char low = (char) from;
+        if (index < 0) {
+            index = -index - 1;
+            low = 0;
+        }
+        int count = 0;
+        for (; index < size && count < page.length; index++, low = 0) {
+            count = containers[index].copy(low, keys[index] << 16, page, count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the first values greater than or equal to from, no more than limit of them, in ascending order
+     */
+    public long[] page(long from, int limit) {
+        long[] page = new long[(int) Math.min(limit, cardinality)];
+        int count = copyFrom(from, page);
+        return count == page.length ? page : Arrays.copyOf(page, count);
+    }
+
+    /**
+     * @return the values, in ascending order
+     */
+    public long[] toArray() {
+        return page(Long.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return an estimate of the memory taken by the bitmap, in bytes
+     */
+    public long sizeInBytes() {
+        long bytes = 16L * keys.length;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int indexOf(long key) {
+        // values are mostly added in ascending order, so the last container is checked first
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, long key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private static abstract class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        // add a value that isn't in the container, returning the container holding it from now on
+        abstract Container add(char value);
+
+        abstract Container and(Container other);
+
+        // copy the values greater than or equal to from, combined with the high bits, until the page is full
+        abstract int copy(char from, long high, long[] page, int count);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int size;
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            if (size == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            int index = size > 0 && value > values[size - 1] ? size : -Arrays.binarySearch(values, 0, size, value) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[size];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        int copy(char from, long high, long[] page, int count) {
+            int index = Arrays.binarySearch(values, 0, size, from);
+            for (int i = index >= 0 ? index : -index - 1; i < size && count < page.length; i++) {
+                page[count++] = high | values[i];
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 32L + 2L * values.length;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            words[value >>> 6] |= 1L << value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                count += Long.bitCount(words[i] & otherWords[i]);
+            }
+            if (count > ARRAY_MAX) {
+                BitmapContainer result = new BitmapContainer();
+                for (int i = 0; i < words.length; i++) {
+                    result.words[i] = words[i] & otherWords[i];
+                }
+                result.cardinality = count;
+                return result;
+            }
+            char[] values = new char[count];
+            int index = 0;
+            for (int i = 0; i < words.length; i++) {
+                for (long word = words[i] & otherWords[i]; word != 0; word &= word - 1) {
+                    values[index++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        int copy(char from, long high, long[] page, int count) {
+            int i = from >>> 6;
+            long word = words[i] & -1L << from;
+            while (count < page.length) {
+                if (word != 0) {
+                    page[count++] = high | i << 6 | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                } else if (++i < words.length) {
+                    word = words[i];
+                } else {
+                    break;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 32L + 8L * words.length;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.jojos.challenge.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A cache from long keys to values of different sizes, holding no more than a given weight of them and evicting the
+ * least recently used ones beyond it.
+ *
+ * The keys are spread over segments, each an access-ordered {@link LinkedHashMap} with its own lock and an equal share
+ * of the weight, so threads reading different keys rarely wait for each other and an eviction only looks at the
+ * eldest entries of one segment.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LongLruCache<V> {
+
+    private final Segment<V>[] segments;
+    private final int mask;
+    private final long segmentWeight;
+    private final ToIntFunction<V> weigher;
+
+    /**
+     * @param maxWeight the most weight held
+     * @param segments the number of segments, rounded up to a power of two
+     * @param weigher the weight of a value, e.g. its size in bytes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LongLruCache(long maxWeight, int segments, ToIntFunction<V> weigher) {
+        int count = segments <= 1 ? 1 : Integer.highestOneBit(segments - 1) << 1;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment<>();
+        }
+        this.mask = count - 1;
+        this.segmentWeight = maxWeight / count;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @param key the key to look for
+     * @return the value cached for the key, null if there is none
+     */
+    public V get(long key) {
+        Segment<V> segment = segment(key);
+        synchronized (segment) {
+            return segment.map.get(key);
+        }
+    }
+
+    /**
+     * Cache a value, evicting the least recently used values of its segment if it's over its weight.
+     * A value heavier than a whole segment isn't cached.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, V value) {
+        int weight = weigher.applyAsInt(value);
+        if (weight > segmentWeight) {
+            return;
+        }
+        Segment<V> segment = segment(key);
+        synchronized (segment) {
+            V previous = segment.map.put(key, value);
+            segment.weight += weight - (previous == null ? 0 : weigher.applyAsInt(previous));
+            while (segment.weight > segmentWeight) {
+                Map.Entry<Long, V> eldest = segment.map.entrySet().iterator().next();
+                segment.weight -= weigher.applyAsInt(eldest.getValue());
+                segment.map.remove(eldest.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return the weight of the values cached
+     */
+    public long weight() {
+        long weight = 0L;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return the number of values cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<V> segment(long key) {
+        // the high bits of the key take part, so that sequential keys spread over every segment
+        return segments[(int) (key ^ (key >>> 32)) * 0x9E3779B9 >>> 16 & mask];
+    }
+
+    private static class Segment<V> {
+        final LinkedHashMap<Long, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jojos.challenge.cluster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the ring spreads the ids evenly and moves few of them when a node is added
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class HashRingTest {
+
+    @Test
+    public void testSequentialIdsSpreadEvenly() {
+        HashRing ring = new HashRing(4, 128);
+        int[] counts = new int[4];
+        int ids = 400_000;
+        for (long id = 1; id <= ids; id++) {
+            counts[ring.owner(id)]++;
+        }
+        for (int count : counts) {
+            Assert.assertEquals(ids / 4d, count, ids / 4d * 0.2d);
+        }
+        Assert.assertEquals(0, new HashRing(1, 1).owner(42L));
+    }
+
+    @Test
+    public void testAddingANodeMovesOnlyItsShare() {
+        HashRing three = new HashRing(3, 128);
+        HashRing four = new HashRing(4, 128);
+        int ids = 100_000;
+        int moved = 0;
+        for (long id = 1; id <= ids; id++) {
+            int before = three.owner(id);
+            int after = four.owner(id);
+            if (before != after) {
+                // an id only ever moves to the new node
+                Assert.assertEquals(3, after);
+                moved++;
+            }
+        }
+        Assert.assertEquals(ids / 4d, moved, ids / 4d * 0.2d);
+    }
+}
@@ -0,0 +1,164 @@
+package com.jojos.challenge.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test that the hand-written json matches what Jackson writes for the same objects
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class JsonWritersTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testTransaction() throws IOException {
+        Transaction transaction = new Transaction(0.1d, "ca\"rs\\é☃😀\n\u0001", 7L);
+        transaction.setId(42L);
+        assertSameJson(transaction, write(new JsonWriters.TransactionWriter(), transaction));
+
+        Transaction untyped = new Transaction(5000d, null, 0L);
+        untyped.setId(-1L);
+        assertSameJson(untyped, write(new JsonWriters.TransactionWriter(), untyped));
+    }
+
+    @Test
+    public void testSum() throws IOException {
+        Assert.assertEquals("{\"sum\":15000.0}", write(new JsonWriters.SumWriter(), new Sum(15000d)));
+        Assert.assertEquals("{\"sum\":-0.0}", write(new JsonWriters.SumWriter(), new Sum(-0d)));
+        Assert.assertEquals("{\"sum\":0.30000000000000004}", write(new JsonWriters.SumWriter(), new Sum(0.1d + 0.2d)));
+        assertSameJson(new Sum(1e300), write(new JsonWriters.SumWriter(), new Sum(1e300)));
+    }
+
+    // ids larger than the buffer are written in pieces, and every number of digits is counted right
+    @Test
+    public void testIds() throws IOException {
+        long[] ids = new long[100_000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i % 2 == 0 ? i : Long.MAX_VALUE - i;
+        }
+        ids[1] = Long.MIN_VALUE;
+        long power = 1L;
+        for (int digits = 1; digits < 19; digits++, power *= 10L) {
+            ids[digits * 3] = power;
+            ids[digits * 3 + 1] = power - 1L;
+            ids[digits * 3 + 2] = -power;
+        }
+        assertSameJson(ids, write(new JsonWriters.IdsWriter(), ids));
+        Assert.assertEquals("[]", write(new JsonWriters.IdsWriter(), new long[0]));
+    }
+
+    // a stream of several pages reads every page from the id after the last one written
+    @Test
+    public void testIdStream() throws IOException {
+        long[] ids = new long[JsonWriters.IdStreamWriter.PAGE_SIZE * 2 + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i * 3L;
+        }
+        ids[ids.length - 1] = Long.MAX_VALUE;
+        IdStream stream = new IdStream((from, page) -> {
+            int count = 0;
+            for (long id : ids) {
+                if (id >= from && count < page.length) {
+                    page[count++] = id;
+                }
+            }
+            return count;
+        });
+        assertSameJson(ids, write(new JsonWriters.IdStreamWriter(), stream));
+        Assert.assertEquals("[]", write(new JsonWriters.IdStreamWriter(), new IdStream((from, page) -> 0)));
+    }
+
+    // a chunk of inserts is followed by the sums it changed, and the last event of the chunk carries its sequence
+    @Test
+    public void testChangeStream() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        ChangeStream.Source source = new ChangeStream.Source() {
+            @Override
+            public int read(int from, long[] ids, double[] amounts, long[] parentIds, String[] types, long timeoutMillis)
+                    throws InterruptedException {
+                if (from > 5) {
+                    throw new InterruptedException();
+                }
+                Assert.assertEquals(5, from);
+                ids[0] = 6L;
+                amounts[0] = 10d;
+                parentIds[0] = 0L;
+                types[0] = "cars";
+                ids[1] = 7L;
+                amounts[1] = 2.5d;
+                parentIds[1] = 6L;
+                types[1] = null;
+                return 2;
+            }
+
+            @Override
+            public void sums(int from, int count, ChangeStream.SumSink sink) {
+                sink.sum(7L, 2.5d);
+                sink.sum(6L, 12.5d);
+            }
+        };
+        String events = write(new JsonWriters.ChangeStreamWriter(), new ChangeStream(source, 5L, 1000L, () -> closed.set(true)));
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertTrue(closed.get());
+
+        // the stream opens with a comment of blanks
+        Assert.assertTrue(events.startsWith(": "));
+        Assert.assertEquals("event: insert\n"
+                + "data: {\"seq\":6,\"id\":6,\"amount\":10.0,\"type\":\"cars\",\"parent_id\":0}\n\n"
+                + "event: insert\n"
+                + "data: {\"seq\":7,\"id\":7,\"amount\":2.5,\"type\":null,\"parent_id\":6}\n\n"
+                + "event: sum\n"
+                + "data: {\"seq\":7,\"id\":7,\"sum\":2.5}\n\n"
+                + "event: sum\n"
+                + "data: {\"seq\":7,\"id\":6,\"sum\":12.5}\n"
+                + "id: 7\n\n", events.substring(events.indexOf("event:")));
+    }
+
+    // every double reads back as itself, whatever the writer picked to represent it
+    @Test
+    public void testDoublesRoundTrip() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0:
+                    value = Math.round(random.nextDouble() * 1e8) / 100d;
+                    break;
+                case 1:
+                    value = random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15);
+                    break;
+                case 2:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+                default:
+                    value = random.nextInt(100_000) * 0.1d - 5000d;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            String json = write(new JsonWriters.SumWriter(), new Sum(value));
+            Assert.assertEquals(json, value, mapper.readTree(json).get("sum").doubleValue(), 0d);
+        }
+    }
+
+    private void assertSameJson(Object value, String json) throws IOException {
+        JsonNode expected = mapper.readTree(mapper.writeValueAsBytes(value));
+        Assert.assertEquals(expected, mapper.readTree(json));
+    }
+
+    private static <T> String write(JsonWriters.JsonWriter<T> writer, T value) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeTo(value, value.getClass(), value.getClass(), null, null, null, output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,52 @@
+package com.jojos.challenge.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the recording of metrics and their Prometheus text format
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500L);             // 0.5 microseconds
+        histogram.record(1_000L);           // on the bound of the first bucket
+        histogram.record(3_000_000L);       // 3 milliseconds
+        histogram.record(60_000_000_000L);  // a minute
+
+        StringBuilder output = new StringBuilder();
+        histogram.write(output, "latency", "");
+        String text = output.toString();
+
+        Assert.assertEquals(4L, histogram.count());
+        Assert.assertTrue(text, text.contains("latency_bucket{le=\"1.0E-6\"} 2\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{le=\"0.0025\"} 2\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{le=\"0.005\"} 3\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{le=\"10.0\"} 3\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{le=\"+Inf\"} 4\n"));
+        Assert.assertTrue(text, text.contains("latency_count 4\n"));
+    }
+
+    @Test
+    public void testScrape() {
+        Metrics metrics = new Metrics();
+        metrics.endpoint("getSum").record(200, 1_000_000L);
+        metrics.endpoint("getSum").record(404, 1_000_000L);
+        metrics.endpoint("insertTransaction").record(500, 1_000_000L);
+        metrics.sumsFound.increment();
+        metrics.gauge("transactions_stored", "Transactions stored.", () -> 42);
+
+        String text = metrics.scrape();
+
+        Assert.assertTrue(text, text.contains("transactions_http_requests_total{endpoint=\"getSum\"} 2\n"));
+        Assert.assertTrue(text, text.contains("transactions_http_errors_total{endpoint=\"getSum\",status=\"4xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains("transactions_http_errors_total{endpoint=\"insertTransaction\",status=\"5xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains("transactions_http_request_duration_seconds_count{endpoint=\"getSum\"} 2\n"));
+        Assert.assertTrue(text, text.contains("transactions_sum_lookups_total{result=\"found\"} 1\n"));
+        Assert.assertTrue(text, text.contains("# TYPE transactions_stored gauge\ntransactions_stored 42\n"));
+    }
+}
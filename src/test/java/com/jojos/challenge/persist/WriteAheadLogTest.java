@@ -0,0 +1,125 @@
+package com.jojos.challenge.persist;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test writing, replaying and recovering the {@link WriteAheadLog}
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            log.awaitDurable(log.append(1L, 100d, 0L, "cars"));
+            log.awaitDurable(log.append(2L, 200d, 1L, null));
+            log.awaitDurable(log.append(3L, 300d, 1L, "καφές"));
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            Assert.assertEquals(3L, log.nextSequence());
+            List<String> records = new ArrayList<>();
+            Assert.assertEquals(2L, log.replay(1L, (sequence, id, amount, parentId, type) ->
+                    records.add(sequence + ":" + id + ":" + amount + ":" + parentId + ":" + type)));
+            Assert.assertEquals("1:2:200.0:1:null", records.get(0));
+            Assert.assertEquals("2:3:300.0:1:καφές", records.get(1));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.OS, 10L)) {
+            log.append(1L, 100d, 0L, "cars");
+            log.awaitDurable(log.append(2L, 200d, 1L, "cars"));
+        }
+        Path segment = Files.list(directory).findFirst().orElseThrow(IllegalStateException::new);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            Assert.assertEquals(1L, log.nextSequence());
+            log.awaitDurable(log.append(3L, 300d, 0L, "cars"));
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            List<Long> ids = new ArrayList<>();
+            log.replay(0L, (sequence, id, amount, parentId, type) -> ids.add(id));
+            Assert.assertEquals(2, ids.size());
+            Assert.assertEquals(3L, ids.get(1).longValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAreAllDurable() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                long first = i * 100L;
+                futures.add(executorService.submit(() -> {
+                    for (long id = first; id < first + 100L; id++) {
+                        log.awaitDurable(log.append(id, id, 0L, "cars"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            Assert.assertEquals(800L, log.nextSequence());
+            Assert.assertEquals(800L, log.replay(0L, (sequence, id, amount, parentId, type) -> { }));
+        }
+    }
+
+    @Test
+    public void testFailedWriteRefusesAppends() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L);
+        log.awaitDurable(log.append(1L, 100d, 0L, "cars"));
+        // a closed channel fails the next write like a full disk would
+        log.close();
+        long sequence = log.append(2L, 200d, 0L, "cars");
+        try {
+            log.awaitDurable(sequence);
+            Assert.fail("The write to a closed log succeeded");
+        } catch (IOException expected) {
+            Assert.assertTrue(log.isFailed());
+        }
+        try {
+            log.append(3L, 300d, 0L, "cars");
+            Assert.fail("A failed log accepted an append");
+        } catch (IOException expected) {
+            // refused
+        }
+
+        try (WriteAheadLog reopened = new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L)) {
+            Assert.assertEquals(1L, reopened.nextSequence());
+        }
+    }
+}
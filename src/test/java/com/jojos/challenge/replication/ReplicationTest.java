@@ -0,0 +1,138 @@
+package com.jojos.challenge.replication;
+
+import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.transact.TransactionHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Test a leader and its followers within the same process, over localhost
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class ReplicationTest {
+
+    private static final double DELTA = 0.001d;
+    private static final long HEARTBEAT_MILLIS = 50L;
+
+    private TransactionHandler leaderHandler;
+    private ReplicationLeader leader;
+
+    @Before
+    public void setUp() throws IOException {
+        leaderHandler = new TransactionHandler();
+        leader = new ReplicationLeader(leaderHandler, 0, HEARTBEAT_MILLIS);
+    }
+
+    @After
+    public void cleanUp() {
+        leader.close();
+    }
+
+    @Test
+    public void testFollowerCatchesUpAndFollows() throws InterruptedException {
+        // stored before the follower connects, children first
+        for (long id = 1000; id >= 1; id--) {
+            Assert.assertTrue(leaderHandler.insert(transaction(id, 1d, id % 2 == 0 ? "even" : "odd", id - 1)));
+        }
+        TransactionHandler followerHandler = new TransactionHandler();
+        try (ReplicationFollower follower = follow(followerHandler)) {
+            awaitCaughtUp(follower, followerHandler, 1000);
+            Assert.assertEquals(1000d, followerHandler.getSum(1L), DELTA);
+            Assert.assertArrayEquals(leaderHandler.getTypes("even"), followerHandler.getTypes("even"));
+
+            // and what is stored while it's connected
+            Assert.assertTrue(leaderHandler.insert(transaction(1001L, 5d, "odd", 1000L)));
+            awaitCaughtUp(follower, followerHandler, 1001);
+            Assert.assertEquals(1005d, followerHandler.getSum(1L), DELTA);
+            Assert.assertEquals(1, leader.followerCount());
+            Assert.assertEquals(0L, follower.lagMillis());
+        }
+    }
+
+    // a type too long for writeUTF, and no type at all, are replicated as they are
+    @Test
+    public void testLongAndMissingTypes() throws InterruptedException {
+        StringBuilder longType = new StringBuilder();
+        while (longType.length() < 40_000) {
+            longType.append('\u00e9');
+        }
+        Assert.assertTrue(leaderHandler.insert(transaction(1L, 1d, longType.toString(), TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(leaderHandler.insert(transaction(2L, 2d, null, 1L)));
+        TransactionHandler followerHandler = new TransactionHandler();
+        try (ReplicationFollower follower = follow(followerHandler)) {
+            awaitCaughtUp(follower, followerHandler, 2);
+            Assert.assertEquals(longType.toString(), followerHandler.getTransaction(1L).getType());
+            Assert.assertNull(followerHandler.getTransaction(2L).getType());
+            Assert.assertEquals(3d, followerHandler.getSum(1L), DELTA);
+        }
+    }
+
+    @Test
+    public void testFollowerResumesAfterDisconnect() throws InterruptedException {
+        TransactionHandler followerHandler = new TransactionHandler();
+        Assert.assertTrue(leaderHandler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        try (ReplicationFollower follower = follow(followerHandler)) {
+            awaitCaughtUp(follower, followerHandler, 1);
+        }
+        Assert.assertTrue(leaderHandler.insert(transaction(2L, 200d, "cars", 1L)));
+
+        // a new follower of the same handler only fetches what it has missed
+        try (ReplicationFollower follower = follow(followerHandler)) {
+            awaitCaughtUp(follower, followerHandler, 2);
+            Assert.assertEquals(300d, followerHandler.getSum(1L), DELTA);
+
+            leader.close();
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (follower.isConnected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            Assert.assertFalse(follower.isConnected());
+            Thread.sleep(20L);
+            Assert.assertTrue(follower.lagMillis() > 0L);
+        }
+    }
+
+    @Test
+    public void testLeaderRefusesDivergedFollower() throws InterruptedException {
+        Assert.assertTrue(leaderHandler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        // the follower holds a transaction the leader doesn't, e.g. one the leader lost in a crash
+        TransactionHandler followerHandler = new TransactionHandler();
+        Assert.assertTrue(followerHandler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(followerHandler.insert(transaction(2L, 200d, "cars", 1L)));
+        try (ReplicationFollower follower = follow(followerHandler)) {
+            Thread.sleep(10 * HEARTBEAT_MILLIS);
+            Assert.assertEquals(0, leader.followerCount());
+            Assert.assertTrue(leaderHandler.insert(transaction(3L, 300d, "cars", 1L)));
+            Thread.sleep(10 * HEARTBEAT_MILLIS);
+            Assert.assertEquals(2, followerHandler.size());
+            Assert.assertTrue(follower.lagMillis() > 0L);
+        }
+    }
+
+    private ReplicationFollower follow(TransactionHandler handler) {
+        return new ReplicationFollower(handler, new InetSocketAddress("localhost", leader.getPort()), HEARTBEAT_MILLIS);
+    }
+
+    private static void awaitCaughtUp(ReplicationFollower follower, TransactionHandler handler, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while ((handler.size() < size || !follower.isConnected()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(size, handler.size());
+        // the size of the leader comes along with the frame that has been applied
+        Thread.sleep(2 * HEARTBEAT_MILLIS);
+        Assert.assertEquals(0L, follower.lag());
+    }
+
+    private static Transaction transaction(long id, double amount, String type, long parentId) {
+        Transaction transaction = new Transaction(amount, type, parentId);
+        transaction.setId(id);
+        return transaction;
+    }
+}
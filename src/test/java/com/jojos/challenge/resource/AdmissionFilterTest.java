@@ -0,0 +1,113 @@
+package com.jojos.challenge.resource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test that writes are refused, with the right status and Retry-After, once each of the limits is reached
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class AdmissionFilterTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final AtomicInteger heap = new AtomicInteger(10);
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Test
+    public void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long start = now.get();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0L, bucket.tryAcquire(start));
+        }
+        // the burst is spent, the next token comes a tenth of a second later
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.tryAcquire(start));
+        Assert.assertFalse(bucket.isFull(start));
+        Assert.assertEquals(0L, bucket.tryAcquire(start + TimeUnit.MILLISECONDS.toNanos(100)));
+
+        // however long it stays idle, it holds no more than the burst
+        long later = start + TimeUnit.MINUTES.toNanos(1);
+        Assert.assertTrue(bucket.isFull(later));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0L, bucket.tryAcquire(later));
+        }
+        Assert.assertTrue(bucket.tryAcquire(later) > 0L);
+    }
+
+    @Test
+    public void testRates() {
+        AdmissionFilter filter = filter(0, 3, 2, 2, 10);
+
+        // every client has a rate of its own, and the clients without the header share one
+        assertAdmitted(filter.admit("a"));
+        assertAdmitted(filter.admit("a"));
+        assertRefused(AdmissionFilter.TOO_MANY_REQUESTS, filter.admit("a"));
+        assertAdmitted(filter.admit(null));
+        // the global rate is spent by now
+        assertRefused(AdmissionFilter.TOO_MANY_REQUESTS, filter.admit("b"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertAdmitted(filter.admit("a"));
+        assertAdmitted(filter.admit("b"));
+    }
+
+    // the clients beyond the limit share the rate of the anonymous ones, until the idle ones are forgotten
+    @Test
+    public void testClientLimit() {
+        AdmissionFilter filter = filter(0, 0, 1, 1, 2);
+        assertAdmitted(filter.admit("a"));
+        assertAdmitted(filter.admit("b"));
+        assertAdmitted(filter.admit("c"));
+        assertRefused(AdmissionFilter.TOO_MANY_REQUESTS, filter.admit("d"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertAdmitted(filter.admit("d"));
+        assertAdmitted(filter.admit("e"));
+    }
+
+    @Test
+    public void testInflightAndWatermarks() {
+        AdmissionFilter filter = filter(2, 0, 0, 0, 10);
+        assertAdmitted(filter.admit(null));
+        assertAdmitted(filter.admit(null));
+        assertRefused(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), filter.admit(null));
+        filter.done();
+        assertAdmitted(filter.admit(null));
+        filter.done();
+        filter.done();
+
+        size.set(100);
+        assertRefused(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), filter.admit(null));
+        size.set(99);
+        assertAdmitted(filter.admit(null));
+        filter.done();
+
+        // the occupancy of the heap is sampled, so it's noticed on the next sample
+        heap.set(95);
+        assertAdmitted(filter.admit(null));
+        filter.done();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertRefused(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), filter.admit(null));
+    }
+
+    private AdmissionFilter filter(int inflight, int rate, int clientRate, int clientBurst, int maxClients) {
+        return new AdmissionFilter(heap::get, size::get, now::get, 90, 100L, inflight, rate, rate, clientRate,
+                clientBurst, "X-Client-Id", maxClients);
+    }
+
+    private static void assertAdmitted(Response refusal) {
+        Assert.assertNull(refusal);
+    }
+
+    private static void assertRefused(int status, Response refusal) {
+        Assert.assertNotNull(refusal);
+        Assert.assertEquals(status, refusal.getStatus());
+        Assert.assertEquals(1L, refusal.getHeaders().getFirst("Retry-After"));
+    }
+}
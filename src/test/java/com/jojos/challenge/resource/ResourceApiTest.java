@@ -1,8 +1,10 @@
 package com.jojos.challenge.resource;
 
+import com.jojos.challenge.json.ImportResult;
 import com.jojos.challenge.json.InsertStatus;
 import com.jojos.challenge.json.Sum;
 import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.json.TypeStats;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -15,10 +17,13 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.DoubleAdder;
 
@@ -105,6 +110,165 @@ public class ResourceApiTest {
         });
     }
 
+    @Test
+    public void test5InsertBatch() {
+        List<Transaction> batch = new ArrayList<>();
+        // the child comes before its parent, the last one is a duplicate and a null is refused like it
+        batch.add(createTransaction(21L, 200d, "batch", 20L));
+        batch.add(createTransaction(20L, 100d, "batch", 0L));
+        batch.add(createTransaction(22L, 300d, "batch", 21L));
+        batch.add(createTransaction(20L, 100d, "batch", 0L));
+        batch.add(null);
+
+        Response response = rootWebTarget.path("transactions").request(MediaType.APPLICATION_JSON_TYPE)
+                .put(Entity.entity(batch, MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(200, response.getStatus());
+        List<InsertStatus> statuses = response.readEntity(new GenericType<List<InsertStatus>>() { });
+        Assert.assertEquals(5, statuses.size());
+        Assert.assertEquals("OK", statuses.get(0).getStatus());
+        Assert.assertEquals("OK", statuses.get(1).getStatus());
+        Assert.assertEquals("OK", statuses.get(2).getStatus());
+        Assert.assertEquals("Bad Request", statuses.get(3).getStatus());
+        Assert.assertEquals("Bad Request", statuses.get(4).getStatus());
+
+        Sum sum = rootWebTarget.path("sum/20").request(MediaType.APPLICATION_JSON_TYPE).get(Sum.class);
+        Assert.assertEquals(600d, sum.getSum(), 0.01d);
+
+        response = rootWebTarget.path("transactions").request(MediaType.APPLICATION_JSON_TYPE)
+                .put(Entity.entity(Collections.nCopies(ResourceApi.MAX_IDS + 1, null), MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void test6Import() {
+        String lines = "{\"id\":31,\"amount\":200,\"type\":\"imported\",\"parent_id\":30}\n" +
+                "{\"id\":30,\"amount\":100,\"type\":\"imported\"}\n";
+
+        Response response = rootWebTarget.path("import").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(lines, "application/x-ndjson"));
+        Assert.assertEquals(200, response.getStatus());
+        ImportResult result = response.readEntity(ImportResult.class);
+        Assert.assertEquals(2L, result.getInserted());
+        Assert.assertEquals(0L, result.getRejected());
+
+        Sum sum = rootWebTarget.path("sum/30").request(MediaType.APPLICATION_JSON_TYPE).get(Sum.class);
+        Assert.assertEquals(300d, sum.getSum(), 0.01d);
+    }
+
+    @Test
+    public void test7Metrics() {
+        // a write failing with an exception no mapper handles is recorded too
+        Response failed = rootWebTarget.path("transaction/99001").request().put(Entity.json("null"));
+        Assert.assertEquals(500, failed.getStatus());
+        failed.close();
+
+        Response response = client.target(server.getURI()).path("metrics").request(MediaType.TEXT_PLAIN_TYPE).get();
+
+        Assert.assertEquals(200, response.getStatus());
+        String metrics = response.readEntity(String.class);
+        Assert.assertTrue(metrics, metrics.contains("transactions_http_requests_total{endpoint=\"getSum\"}"));
+        Assert.assertTrue(metrics, metrics.contains("transactions_http_errors_total{endpoint=\"insertTransaction\",status=\"5xx\"}"));
+        Assert.assertTrue(metrics, metrics.contains("transactions_lock_hold_seconds_count{lock=\"write\"}"));
+        Assert.assertTrue(metrics, metrics.contains("# TYPE transactions_stored gauge"));
+    }
+
+    @Test
+    public void test8GetTypesInPages() {
+        // the cars are 10, 15 and 16
+        Response response = rootWebTarget.path("types/cars").queryParam("limit", 2).request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertArrayEquals(new long[]{10L, 15L}, response.readEntity(long[].class));
+        Assert.assertNotNull(response.getLink("next"));
+
+        response = client.target(response.getLink("next")).request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertArrayEquals(new long[]{16L}, response.readEntity(long[].class));
+        Assert.assertNull(response.getLink("next"));
+
+        response = rootWebTarget.path("types/cars").queryParam("limit", 0).request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(400, response.getStatus());
+
+        // without a limit the whole type is streamed, in ascending order
+        long[] ids = rootWebTarget.path("types/cars").request(MediaType.APPLICATION_JSON_TYPE).get(long[].class);
+        Assert.assertArrayEquals(new long[]{10L, 15L, 16L}, ids);
+    }
+
+    @Test
+    public void test9GetTypeStats() {
+        // the cars are 10, 15 and 16
+        TypeStats stats = rootWebTarget.path("types/cars/stats").request(MediaType.APPLICATION_JSON_TYPE).get(TypeStats.class);
+        Assert.assertEquals("cars", stats.getType());
+        Assert.assertEquals(3L, stats.getCount());
+        Assert.assertEquals(100000d, stats.getSum(), 0.01d);
+        Assert.assertEquals(10000d, stats.getMin(), 0.01d);
+        Assert.assertEquals(50000d, stats.getMax(), 0.01d);
+
+        stats = rootWebTarget.path("types/missing/stats").request(MediaType.APPLICATION_JSON_TYPE).get(TypeStats.class);
+        Assert.assertEquals(0L, stats.getCount());
+        Assert.assertNull(stats.getAverage());
+    }
+
+    @Test
+    public void testAMultiGet() {
+        long[] ids = {16L, 99L, 10L};
+        List<Transaction> transactions = rootWebTarget.path("transactions:get").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(ids, MediaType.APPLICATION_JSON_TYPE), new GenericType<List<Transaction>>() { });
+        Assert.assertEquals(3, transactions.size());
+        Assert.assertEquals(16L, transactions.get(0).getId());
+        Assert.assertEquals(15L, transactions.get(0).getParentId());
+        Assert.assertNull(transactions.get(1));
+        Assert.assertEquals(10000d, transactions.get(2).getAmount(), 0.01d);
+
+        List<Sum> sums = rootWebTarget.path("sums:get").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(ids, MediaType.APPLICATION_JSON_TYPE), new GenericType<List<Sum>>() { });
+        Assert.assertEquals(3, sums.size());
+        Assert.assertEquals(getSumForId(16L), sums.get(0).getSum(), 0.01d);
+        Assert.assertNull(sums.get(1));
+        Assert.assertEquals(getSumForId(10L), sums.get(2).getSum(), 0.01d);
+
+        Response response = rootWebTarget.path("sums:get").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(new long[ResourceApi.MAX_IDS + 1], MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+    // the cached json of a transaction and the json of a sum are only sent again when they have changed
+    @Test
+    public void testBConditionalGet() {
+        WebTarget transactionWT = rootWebTarget.path("transaction/40");
+        WebTarget sumWT = rootWebTarget.path("sum/40");
+        Assert.assertEquals(204, transactionWT.request(MediaType.APPLICATION_JSON_TYPE).get().getStatus());
+        transactionWT.request(MediaType.APPLICATION_JSON_TYPE)
+                .put(Entity.entity(createTransaction(40L, 50d, "conditional", 0L), MediaType.APPLICATION_JSON_TYPE));
+
+        Response first = transactionWT.request(MediaType.APPLICATION_JSON_TYPE).get();
+        Response cached = transactionWT.request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(200, cached.getStatus());
+        Assert.assertNotNull(first.getEntityTag());
+        Assert.assertEquals(first.getEntityTag(), cached.getEntityTag());
+        Assert.assertEquals("conditional", cached.readEntity(Transaction.class).getType());
+        Response notModified = transactionWT.request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.IF_NONE_MATCH, first.getEntityTag()).get();
+        Assert.assertEquals(304, notModified.getStatus());
+
+        Response sum = sumWT.request(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertEquals(304, sumWT.request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.IF_NONE_MATCH, sum.getEntityTag()).get().getStatus());
+        // a child changes the sum, and so its tag
+        rootWebTarget.path("transaction/41").request(MediaType.APPLICATION_JSON_TYPE)
+                .put(Entity.entity(createTransaction(41L, 25d, "conditional", 40L), MediaType.APPLICATION_JSON_TYPE));
+        Response changed = sumWT.request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.IF_NONE_MATCH, sum.getEntityTag()).get();
+        Assert.assertEquals(200, changed.getStatus());
+        Assert.assertNotEquals(sum.getEntityTag(), changed.getEntityTag());
+        Assert.assertEquals(75d, changed.readEntity(Sum.class).getSum(), 0.01d);
+    }
+
+    private static Transaction createTransaction(long id, double amount, String type, long parentId) {
+        Transaction transaction = new Transaction(amount, type, parentId);
+        transaction.setId(id);
+        return transaction;
+    }
+
     private List<Long> getIdsForType(String type) {
         List<Long> ids = new ArrayList<>();
 
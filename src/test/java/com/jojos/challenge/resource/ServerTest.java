@@ -1,10 +1,26 @@
 package com.jojos.challenge.resource;
 
+import com.jojos.challenge.util.Config;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * Test http server starting and stopping
  *
@@ -36,4 +52,106 @@ public class ServerTest {
         server.start();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGrizzlyTransport() {
+        Server grizzly = new Server(Transport.GRIZZLY, 8090, 0, ExecutionModel.BOUNDED, 4, 16);
+        grizzly.start();
+        Client client = ClientBuilder.newClient();
+        try {
+            Response response = client.target(grizzly.getURI()).path("transactionservice/sum/1").request().get();
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertTrue(response.readEntity(String.class).contains("sum"));
+        } finally {
+            client.close();
+            grizzly.stop();
+        }
+    }
+
+    // a request that finds the threads busy and the queue full is rejected, for the transport to answer it
+    @Test(expected = RejectedExecutionException.class)
+    public void testBoundedExecutorRejects() throws InterruptedException {
+        ExecutorService executor = Server.createExecutor(ExecutionModel.BOUNDED, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            executor.execute(() -> { });
+            executor.execute(() -> Assert.fail("The request should have been rejected"));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testJdkTransportAnswersRejectedRequests() throws IOException, InterruptedException {
+        assertRejectedWith503(new Server(Transport.JDK, 8091, 0, ExecutionModel.BOUNDED, 1, 1));
+    }
+
+    @Test
+    public void testGrizzlyTransportAnswersRejectedRequests() throws IOException, InterruptedException {
+        assertRejectedWith503(new Server(Transport.GRIZZLY, 8092, 0, ExecutionModel.BOUNDED, 1, 1));
+    }
+
+    // a write failing with an exception no response filter sees still lets go of its in-flight write
+    @Test
+    public void testFailedWriteReleasesInflight() {
+        System.setProperty(Config.PREFIX + "admission.inflight", "1");
+        Server admitting;
+        try {
+            admitting = new Server(Transport.JDK, 8093, 0, ExecutionModel.BOUNDED, 4, 16);
+        } finally {
+            System.clearProperty(Config.PREFIX + "admission.inflight");
+        }
+        admitting.start();
+        Client client = ClientBuilder.newClient();
+        try {
+            WebTarget target = client.target(admitting.getURI()).path("transactionservice/transaction");
+            for (int i = 0; i < 3; i++) {
+                Response failed = target.path("77001").request().put(Entity.json("null"));
+                Assert.assertEquals(500, failed.getStatus());
+                failed.close();
+            }
+            Response admitted = target.path("77002").request()
+                    .put(Entity.json("{\"amount\":1.0,\"type\":\"admission\"}"));
+            Assert.assertEquals(200, admitted.getStatus());
+            admitted.close();
+        } finally {
+            client.close();
+            admitting.stop();
+        }
+    }
+
+    // two never-ending change streams take the only thread and the only place in the queue
+    private static void assertRejectedWith503(Server bounded) throws IOException, InterruptedException {
+        bounded.start();
+        int port = bounded.getURI().getPort();
+        try (Socket running = new Socket("localhost", port); Socket queued = new Socket("localhost", port);
+             Socket rejected = new Socket("localhost", port)) {
+            send(running, "/transactionservice/changes");
+            Assert.assertEquals("HTTP/1.1 200 OK", readStatus(running));
+            send(queued, "/transactionservice/changes");
+            Thread.sleep(200L);
+            send(rejected, "/transactionservice/sum/1");
+            Assert.assertEquals("HTTP/1.1 503 Service Unavailable", readStatus(rejected));
+        } finally {
+            bounded.stop();
+        }
+    }
+
+    private static void send(Socket socket, String path) throws IOException {
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    private static String readStatus(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+
+}
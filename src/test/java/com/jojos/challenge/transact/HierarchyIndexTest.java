@@ -0,0 +1,76 @@
+package com.jojos.challenge.transact;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Test the Euler-tour index against sums walked up the parents
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class HierarchyIndexTest {
+
+    private static final double DELTA = 0.001d;
+
+    @Test
+    public void testDeepChain() {
+        HierarchyIndex index = new HierarchyIndex();
+        int length = 200_000;
+        // linked leaf first, so every link puts the whole chain so far under a new root
+        for (int ordinal = 0; ordinal < length; ordinal++) {
+            index.add(ordinal, 1d);
+            if (ordinal > 0) {
+                index.link(ordinal - 1, ordinal);
+            }
+        }
+        Assert.assertEquals(length, index.size());
+        Assert.assertEquals(length, index.sum(length - 1), DELTA);
+        Assert.assertEquals(1d, index.sum(0), DELTA);
+        Assert.assertEquals(1001d, index.sum(1000), DELTA);
+        Assert.assertTrue(index.connected(0, length - 1));
+    }
+
+    @Test
+    public void testRandomForestMatchesWalkedSums() {
+        HierarchyIndex index = new HierarchyIndex();
+        Random random = new Random(7L);
+        int size = 5_000;
+        int[] parents = new int[size];
+        double[] amounts = new double[size];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            amounts[ordinal] = random.nextInt(1000);
+            parents[ordinal] = -1;
+            index.add(ordinal, amounts[ordinal]);
+        }
+        // link every transaction under a random earlier one, in random order, so trees are linked under trees
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int ordinal : order) {
+            if (ordinal > 0 && random.nextInt(10) > 0) {
+                int parent = random.nextInt(ordinal);
+                index.link(ordinal, parent);
+                parents[ordinal] = parent;
+            }
+        }
+
+        double[] expected = amounts.clone();
+        for (int ordinal = size - 1; ordinal >= 0; ordinal--) {
+            if (parents[ordinal] >= 0) {
+                expected[parents[ordinal]] += expected[ordinal];
+            }
+        }
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            Assert.assertEquals(expected[ordinal], index.sum(ordinal), DELTA);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.RemoteSum;
+import com.jojos.challenge.json.Transaction;
+import com.jojos.challenge.json.TypeStats;
+import com.jojos.challenge.persist.SyncPolicy;
+import com.jojos.challenge.persist.WriteAheadLog;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test the {@link TransactionHandler} directly, without going through the rest api.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class TransactionHandlerTest {
+
+    private static final double DELTA = 0.001d;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TransactionHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new TransactionHandler();
+    }
+
+    @Test
+    public void testChildrenInsertedBeforeParent() {
+        Assert.assertTrue(handler.insert(transaction(3L, 300d, "cars", 2L)));
+        Assert.assertTrue(handler.insert(transaction(4L, 400d, "cars", 2L)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "cars", 1L)));
+        Assert.assertEquals(900d, handler.getSum(2L), DELTA);
+        Assert.assertEquals(1, handler.orphanCount());
+
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertEquals(1000d, handler.getSum(1L), DELTA);
+        Assert.assertEquals(300d, handler.getSum(3L), DELTA);
+        Assert.assertEquals(0, handler.orphanCount());
+        Assert.assertEquals(4, handler.size());
+    }
+
+    @Test
+    public void testTypesInAscendingPages() {
+        for (long id : new long[]{5L, 1L, 9L, 3L, 7L}) {
+            Assert.assertTrue(handler.insert(transaction(id, 100d, "cars", TransactionHandler.NO_PARENT)));
+        }
+        Assert.assertArrayEquals(new long[]{1L, 3L, 5L, 7L, 9L}, handler.getTypes("cars"));
+        Assert.assertArrayEquals(new long[]{1L, 3L}, handler.getTypes("cars", Long.MIN_VALUE, 2));
+        Assert.assertArrayEquals(new long[]{5L, 7L}, handler.getTypes("cars", 4L, 2));
+        Assert.assertArrayEquals(new long[]{9L}, handler.getTypes("cars", 8L, 2));
+        Assert.assertArrayEquals(new long[0], handler.getTypes("missing", Long.MIN_VALUE, 2));
+        Assert.assertEquals(5L, handler.typeSize("cars"));
+        Assert.assertEquals(0L, handler.typeSize("missing"));
+
+        long[] page = new long[4];
+        Assert.assertEquals(4, handler.getTypes("cars", 0L, page));
+        Assert.assertArrayEquals(new long[]{1L, 3L, 5L, 7L}, page);
+        Assert.assertEquals(1, handler.getTypes("cars", 8L, page));
+    }
+
+    @Test
+    public void testTypeStats() {
+        Assert.assertEquals(0L, handler.getTypeStats("cars").getCount());
+        Assert.assertNull(handler.getTypeStats("cars").getMin());
+
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, -50d, "cars", 1L)));
+        Assert.assertTrue(handler.insert(transaction(3L, 400d, "shopping", 1L)));
+        Assert.assertFalse(handler.insert(transaction(2L, 1000d, "cars", 1L)));
+
+        TypeStats stats = handler.getTypeStats("cars");
+        Assert.assertEquals(2L, stats.getCount());
+        Assert.assertEquals(50d, stats.getSum(), DELTA);
+        Assert.assertEquals(-50d, stats.getMin(), DELTA);
+        Assert.assertEquals(100d, stats.getMax(), DELTA);
+        Assert.assertEquals(25d, stats.getAverage(), DELTA);
+        Assert.assertEquals(400d, handler.getTypeStats("shopping").getMax(), DELTA);
+    }
+
+    @Test
+    public void testMultiGet() {
+        handler = new TransactionHandler(new HeapTransactionStore(), null, null, 4);
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "shopping", 1L)));
+        Assert.assertTrue(handler.insert(transaction(3L, 300d, "cars", 2L)));
+
+        long[] ids = {3L, 9L, 1L, 2L, 3L};
+        Transaction[] transactions = handler.getTransactions(ids);
+        Assert.assertEquals(ids.length, transactions.length);
+        Assert.assertEquals(3L, transactions[0].getId());
+        Assert.assertEquals(2L, transactions[0].getParentId());
+        Assert.assertNull(transactions[1]);
+        Assert.assertEquals("cars", transactions[2].getType());
+        Assert.assertEquals(200d, transactions[3].getAmount(), DELTA);
+        Assert.assertEquals(3L, transactions[4].getId());
+
+        double[] sums = handler.getSums(ids);
+        Assert.assertArrayEquals(new double[]{300d, Double.NaN, 600d, 500d, 300d}, sums, DELTA);
+        Assert.assertEquals(0, handler.getSums(new long[0]).length);
+    }
+
+    // readers run alongside writers inserting chains out of order across stripes, and every sum adds up in the end
+    @Test
+    public void testConcurrentReadersAndWriters() throws InterruptedException {
+        handler = new TransactionHandler(new HeapTransactionStore(), null, null, 8);
+        int writers = 4;
+        int chains = 200;
+        int length = 20;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                for (int chain = writer; chain < chains; chain += writers) {
+                    // every other chain is inserted leaf first
+                    for (int i = 0; i < length; i++) {
+                        int position = chain % 2 == 0 ? i : length - 1 - i;
+                        long id = chain * 1000L + position + 1;
+                        long parentId = position == 0 ? TransactionHandler.NO_PARENT : id - 1;
+                        Assert.assertTrue(handler.insert(transaction(id, 1d, "cars", parentId)));
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    long id = random.nextInt(chains) * 1000L + random.nextInt(length) + 1;
+                    double sum = handler.getSum(id);
+                    Assert.assertTrue(sum >= 0d && sum <= length);
+                    handler.getTransaction(id);
+                }
+            }));
+        }
+        threads.forEach(thread -> thread.setUncaughtExceptionHandler((t, e) -> failure.set(e)));
+        threads.forEach(Thread::start);
+        for (int w = 0; w < writers; w++) {
+            threads.get(w).join();
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(chains * length, handler.size());
+        Assert.assertEquals(0, handler.orphanCount());
+        for (int chain = 0; chain < chains; chain++) {
+            for (int position = 0; position < length; position++) {
+                Assert.assertEquals(length - position, handler.getSum(chain * 1000L + position + 1), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testSumsFollowLaterInserts() {
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "cars", 1L)));
+        Assert.assertEquals(300d, handler.getSum(1L), DELTA);
+
+        // a pending subtree is added to every ancestor once its parent arrives
+        Assert.assertTrue(handler.insert(transaction(4L, 400d, "cars", 3L)));
+        Assert.assertTrue(handler.insert(transaction(5L, 500d, "cars", 4L)));
+        Assert.assertEquals(300d, handler.getSum(1L), DELTA);
+        Assert.assertTrue(handler.insert(transaction(3L, 300d, "cars", 2L)));
+        Assert.assertEquals(1500d, handler.getSum(1L), DELTA);
+        Assert.assertEquals(1400d, handler.getSum(2L), DELTA);
+        Assert.assertEquals(900d, handler.getSum(4L), DELTA);
+
+        // unrelated transactions leave the sums untouched
+        Assert.assertTrue(handler.insert(transaction(6L, 600d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertEquals(1500d, handler.getSum(1L), DELTA);
+        Assert.assertEquals(0d, handler.getSum(7L), DELTA);
+    }
+
+    // with the hierarchy index a chain far deeper than any recursion could walk is summed in O(log N)
+    @Test
+    public void testDeepChainWithHierarchyIndex() {
+        handler = new TransactionHandler(new HeapTransactionStore(), null, null, 4, true);
+        int length = 100_000;
+        // the upper half root first, the lower half leaf first so that it is linked in when its top arrives
+        for (int position = 0; position < length / 2; position++) {
+            Assert.assertTrue(handler.insert(transaction(position + 1, 1d, "cars", position)));
+        }
+        for (int position = length - 1; position >= length / 2; position--) {
+            Assert.assertTrue(handler.insert(transaction(position + 1, 1d, "cars", position)));
+        }
+        Assert.assertEquals(0, handler.orphanCount());
+        Assert.assertEquals(length, handler.getSum(1L), DELTA);
+        Assert.assertEquals(1d, handler.getSum(length), DELTA);
+        Assert.assertEquals(length / 2, handler.getSum(length / 2 + 1), DELTA);
+        Assert.assertEquals(length, handler.computeSum(1L), DELTA);
+
+        // closing the chain into a cycle is still rejected
+        Assert.assertTrue(handler.insert(transaction(length + 2, 1d, "cars", length + 3)));
+        Assert.assertFalse(handler.insert(transaction(length + 3, 1d, "cars", length + 2)));
+    }
+
+    @Test
+    public void testHierarchyIndexMatchesMaintainedSums() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("transactions.db");
+        TransactionHandler eager = new TransactionHandler(new HeapTransactionStore(), null, null, 4, false);
+        handler = new TransactionHandler(new OffHeapTransactionStore(file), null, null, 4, true);
+        Random random = new Random(7L);
+        for (int i = 0; i < 5_000; i++) {
+            Transaction transaction = transaction(random.nextInt(2_000) + 1, random.nextInt(100),
+                    "cars", random.nextInt(5) == 0 ? TransactionHandler.NO_PARENT : random.nextInt(2_000) + 1);
+            Assert.assertEquals(eager.insert(transaction), handler.insert(transaction));
+        }
+        for (long id = 1; id <= 2_000; id++) {
+            Assert.assertEquals(eager.getSum(id), handler.getSum(id), DELTA);
+            Assert.assertEquals(eager.getSum(id), handler.computeSum(id), DELTA);
+        }
+        handler.close();
+
+        // the tours are rebuilt from the parents on restart
+        handler = new TransactionHandler(new OffHeapTransactionStore(file), null, null, 4, true);
+        for (long id = 1; id <= 2_000; id++) {
+            Assert.assertEquals(eager.getSum(id), handler.getSum(id), DELTA);
+        }
+        handler.close();
+    }
+
+    // every sum changed by a chunk of inserts is visited once, with its value after the chunk
+    @Test
+    public void testReadSums() {
+        TransactionHandler handler = new TransactionHandler();
+        handler.insert(transaction(1L, 10d, "cars", 0L));
+        handler.insert(transaction(2L, 20d, "cars", 1L));
+        handler.insert(transaction(3L, 30d, "cars", 2L));
+        handler.insert(transaction(4L, 40d, "cars", 2L));
+        handler.insert(transaction(5L, 50d, "cars", 9L));
+
+        Map<Long, Double> sums = new LinkedHashMap<>();
+        handler.readSums(2, 3, (id, sum) -> Assert.assertNull(sums.put(id, sum)));
+        Map<Long, Double> expected = new LinkedHashMap<>();
+        expected.put(3L, 30d);
+        expected.put(2L, 90d);
+        expected.put(1L, 100d);
+        expected.put(4L, 40d);
+        // the parent of an orphan is yet to come
+        expected.put(5L, 50d);
+        Assert.assertEquals(expected, sums);
+    }
+
+    // two partitions, the even ids on one and the odd on the other, pushing their sums to each other
+    @Test
+    public void testPartitionedSums() {
+        List<RemoteSum> pushed = new ArrayList<>();
+        TransactionHandler[] partitions = partitions(pushed);
+
+        // a chain alternating between the partitions, the lower half inserted leaf first
+        for (long id = 10; id > 5; id--) {
+            Assert.assertTrue(partitions[(int) (id % 2)].insert(transaction(id, 1d, "cars", id - 1)));
+        }
+        for (long id = 1; id <= 5; id++) {
+            Assert.assertTrue(partitions[(int) (id % 2)].insert(transaction(id, 1d, "cars", id - 1)));
+        }
+        deliver(partitions, pushed);
+        Assert.assertEquals(0, partitions[0].orphanCount() + partitions[1].orphanCount());
+        for (long id = 1; id <= 10; id++) {
+            Assert.assertEquals(11 - id, partitions[(int) (id % 2)].getSum(id), DELTA);
+        }
+
+        // every id but the root is a fragment of its own, pushing them all again changes nothing
+        Assert.assertEquals(9, partitions[0].pushRemoteSums() + partitions[1].pushRemoteSums());
+        deliver(partitions, pushed);
+        Assert.assertEquals(10d, partitions[1].getSum(1L), DELTA);
+
+        // a local child of a fragment pushes the new sum of the fragment on
+        Assert.assertTrue(partitions[0].insert(transaction(12L, 5d, "cars", 10L)));
+        deliver(partitions, pushed);
+        Assert.assertEquals(15d, partitions[1].getSum(1L), DELTA);
+    }
+
+    // a cycle spanning the partitions can't be refused by either of them, but its sums don't go round forever
+    @Test
+    public void testPartitionedCycle() {
+        List<RemoteSum> pushed = new ArrayList<>();
+        TransactionHandler[] partitions = partitions(pushed);
+
+        Assert.assertTrue(partitions[1].insert(transaction(1L, 1d, "cars", 2L)));
+        Assert.assertTrue(partitions[0].insert(transaction(2L, 2d, "cars", 1L)));
+        deliver(partitions, pushed);
+
+        // a local child of the cycle sets off pushes that die out too
+        Assert.assertTrue(partitions[1].insert(transaction(3L, 4d, "cars", 1L)));
+        deliver(partitions, pushed);
+        Assert.assertTrue(partitions[0].insert(transaction(4L, 8d, "cars", 2L)));
+        deliver(partitions, pushed);
+    }
+
+    private static TransactionHandler[] partitions(List<RemoteSum> pushed) {
+        TransactionHandler[] partitions = {new TransactionHandler(), new TransactionHandler()};
+        for (int partition = 0; partition < 2; partition++) {
+            int owner = partition;
+            partitions[partition].partition(id -> id % 2 == owner,
+                    (parentId, id, sum, originId) -> pushed.add(new RemoteSum(id, parentId, sum, originId)));
+        }
+        return partitions;
+    }
+
+    // delivers the pushes until there are none left, failing if they go on and on
+    private static void deliver(TransactionHandler[] partitions, List<RemoteSum> pushed) {
+        for (int delivered = 0; !pushed.isEmpty(); delivered++) {
+            Assert.assertTrue("The sums are pushed back and forth", delivered < 1000);
+            RemoteSum sum = pushed.remove(0);
+            partitions[(int) (sum.getParentId() % 2)].addRemoteSums(Collections.singletonList(sum));
+        }
+    }
+
+    @Test
+    public void testRejectDuplicateAndSelfReference() {
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertFalse(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertFalse(handler.insert(transaction(2L, 100d, "cars", 2L)));
+    }
+
+    @Test
+    public void testRejectCyclicReference() {
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", 2L)));
+        Assert.assertFalse(handler.insert(transaction(2L, 100d, "cars", 1L)));
+
+        // longer cycles are detected through the whole ancestor chain
+        Assert.assertTrue(handler.insert(transaction(3L, 100d, "cars", 1L)));
+        Assert.assertFalse(handler.insert(transaction(2L, 100d, "cars", 3L)));
+    }
+
+    @Test
+    public void testReopenMappedStore() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("transactions.db");
+        handler = new TransactionHandler(new OffHeapTransactionStore(file), null, null);
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "shopping", 1L)));
+        Assert.assertTrue(handler.insert(transaction(4L, 400d, "cars", 3L)));
+        handler.close();
+
+        handler = new TransactionHandler(new OffHeapTransactionStore(file), null, null);
+        Assert.assertEquals(3, handler.size());
+        Assert.assertEquals(1, handler.orphanCount());
+        Assert.assertEquals(300d, handler.getSum(1L), DELTA);
+        Assert.assertEquals("shopping", handler.getTransaction(2L).getType());
+        Assert.assertArrayEquals(new long[]{1L, 4L}, handler.getTypes("cars"));
+
+        // the pending child is still waiting for its parent after the restart
+        Assert.assertTrue(handler.insert(transaction(3L, 300d, "cars", 2L)));
+        Assert.assertEquals(1000d, handler.getSum(1L), DELTA);
+        Assert.assertFalse(handler.insert(transaction(2L, 200d, "shopping", 1L)));
+        handler.close();
+    }
+
+    @Test
+    public void testReplayWriteAheadLog() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        handler = new TransactionHandler(new HeapTransactionStore(), new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L), null);
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "shopping", 1L)));
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertFalse(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        handler.close();
+
+        handler = new TransactionHandler(new HeapTransactionStore(), new WriteAheadLog(directory, SyncPolicy.ALWAYS, 10L), null);
+        Assert.assertEquals(300d, handler.getSum(1L), DELTA);
+        Assert.assertArrayEquals(new long[]{1L}, handler.getTypes("cars"));
+        handler.close();
+    }
+
+    @Test
+    public void testFailedWriteAheadLogStoresNothing() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(folder.getRoot().toPath().resolve("wal"), SyncPolicy.ALWAYS, 10L);
+        handler = new TransactionHandler(new HeapTransactionStore(), writeAheadLog, null);
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        // a closed channel fails the next write like a full disk would
+        writeAheadLog.close();
+        try {
+            handler.insert(transaction(2L, 200d, "cars", 1L));
+            Assert.fail("An insert that couldn't be logged succeeded");
+        } catch (UncheckedIOException expected) {
+            // failed loudly
+        }
+        Assert.assertNull(handler.getTransaction(2L));
+        Assert.assertEquals(100d, handler.getSum(1L), DELTA);
+        Assert.assertEquals(1, handler.size());
+        try {
+            handler.insertAll(Collections.singletonList(transaction(3L, 300d, "cars", 1L)));
+            Assert.fail("A failed log accepted an insert");
+        } catch (UncheckedIOException expected) {
+            // no more inserts
+        }
+        handler.close();
+    }
+
+    @Test
+    public void testReadLogOnlyCopiesDurableTransactions() throws IOException, InterruptedException {
+        // the log is never synced on its own during the test
+        WriteAheadLog writeAheadLog = new WriteAheadLog(folder.getRoot().toPath().resolve("wal"), SyncPolicy.INTERVAL, 3_600_000L);
+        handler = new TransactionHandler(new HeapTransactionStore(), writeAheadLog, null);
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, "cars", 1L)));
+        Assert.assertEquals(0L, writeAheadLog.durableSequence());
+
+        long[] ids = new long[4];
+        Assert.assertEquals(2, handler.readLog(0, ids, new double[4], new long[4], new String[4], 0L));
+        Assert.assertEquals(2L, writeAheadLog.durableSequence());
+        Assert.assertEquals(2L, ids[1]);
+        handler.close();
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndLogTail() throws IOException {
+        Path walDirectory = folder.getRoot().toPath().resolve("wal");
+        Path snapshotDirectory = folder.getRoot().toPath().resolve("snapshots");
+        handler = new TransactionHandler(new HeapTransactionStore(), new WriteAheadLog(walDirectory, SyncPolicy.ALWAYS, 10L), snapshotDirectory);
+        Assert.assertTrue(handler.insert(transaction(1L, 100d, "cars", TransactionHandler.NO_PARENT)));
+        Assert.assertTrue(handler.insert(transaction(2L, 200d, null, 1L)));
+        Assert.assertTrue(handler.insert(transaction(6L, 600d, "shopping", 5L)));
+        Assert.assertEquals(3, handler.snapshot());
+        Assert.assertTrue(handler.insert(transaction(3L, 300d, "cars", 2L)));
+        handler.close();
+        Assert.assertEquals(1L, Files.list(walDirectory).count());
+
+        handler = new TransactionHandler(new HeapTransactionStore(), new WriteAheadLog(walDirectory, SyncPolicy.ALWAYS, 10L), snapshotDirectory);
+        Assert.assertEquals(600d, handler.getSum(1L), DELTA);
+        Assert.assertArrayEquals(new long[]{1L, 3L}, handler.getTypes("cars"));
+        Assert.assertEquals(400d, handler.getTypeStats("cars").getSum(), DELTA);
+        Assert.assertTrue(handler.insert(transaction(5L, 500d, "shopping", 3L)));
+        Assert.assertEquals(1700d, handler.getSum(1L), DELTA);
+        handler.close();
+    }
+
+    private static Transaction transaction(long id, double amount, String type, long parentId) {
+        Transaction transaction = new Transaction(amount, type, parentId);
+        transaction.setId(id);
+        return transaction;
+    }
+}
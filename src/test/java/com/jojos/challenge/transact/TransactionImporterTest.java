@@ -0,0 +1,67 @@
+package com.jojos.challenge.transact;
+
+import com.jojos.challenge.json.ImportResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test the newline-delimited json import
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class TransactionImporterTest {
+
+    private final TransactionHandler handler = new TransactionHandler();
+
+    @Test
+    public void testImportAcrossChunks() {
+        StringBuilder lines = new StringBuilder();
+        // every child comes before its parent, and the chunks are smaller than the input
+        for (long id = 10L; id >= 1L; id--) {
+            lines.append("{\"id\":").append(id).append(",\"amount\":").append(id * 10)
+                    .append(",\"type\":\"cars\",\"parent_id\":").append(id - 1).append(",\"ignored\":[1,2]}\n");
+        }
+        lines.append("{\"id\":5,\"amount\":1,\"type\":\"cars\"}\n");
+
+        ImportResult result = new TransactionImporter(handler, 3).importFrom(stream(lines.toString()));
+        Assert.assertEquals(10L, result.getInserted());
+        Assert.assertEquals(1L, result.getRejected());
+        Assert.assertNull(result.getError());
+        Assert.assertEquals(550d, handler.getSum(1L), 0.001d);
+        Assert.assertEquals(10, handler.getTypes("cars").length);
+    }
+
+    @Test
+    public void testStopAtMalformedLine() {
+        ImportResult result = new TransactionImporter(handler, 3).importFrom(stream(
+                "{\"id\":1,\"amount\":10,\"type\":\"cars\"}\n" +
+                "{\"amount\":20,\"type\":\"cars\"}\n" +
+                "{\"id\":3,\"amount\":30,\"type\":\"cars\"}\n"));
+        Assert.assertEquals(1L, result.getInserted());
+        Assert.assertNotNull(result.getError());
+        Assert.assertNotNull(handler.getTransaction(1L));
+        Assert.assertNull(handler.getTransaction(3L));
+    }
+
+    // a type that isn't a string is as malformed as an id that isn't a number
+    @Test
+    public void testStopAtMalformedType() {
+        ImportResult result = new TransactionImporter(handler, 3).importFrom(stream(
+                "{\"id\":1,\"amount\":10,\"type\":null}\n" +
+                "{\"id\":2,\"type\":{\"id\":4,\"amount\":40},\"amount\":20}\n" +
+                "{\"id\":3,\"amount\":30,\"type\":[\"cars\"]}\n"));
+        Assert.assertEquals(1L, result.getInserted());
+        Assert.assertNotNull(result.getError());
+        Assert.assertNull(handler.getTransaction(1L).getType());
+        Assert.assertNull(handler.getTransaction(2L));
+        Assert.assertNull(handler.getTransaction(4L));
+    }
+
+    private static InputStream stream(String lines) {
+        return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,101 @@
+package com.jojos.challenge.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Test the compressed bitmap against a plain {@link TreeSet}
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LongBitmapTest {
+
+    @Test
+    public void testEmpty() {
+        LongBitmap bitmap = new LongBitmap();
+        Assert.assertEquals(0L, bitmap.cardinality());
+        Assert.assertFalse(bitmap.contains(0L));
+        Assert.assertEquals(0, bitmap.copyFrom(Long.MIN_VALUE, new long[10]));
+        Assert.assertArrayEquals(new long[0], bitmap.toArray());
+        Assert.assertEquals(0L, bitmap.and(bitmap).cardinality());
+    }
+
+    @Test
+    public void testRandomValuesMatchTreeSet() {
+        Random random = new Random(11L);
+        LongBitmap bitmap = new LongBitmap();
+        TreeSet<Long> expected = new TreeSet<>();
+        fill(random, bitmap, expected);
+
+        Assert.assertEquals(expected.size(), bitmap.cardinality());
+        Assert.assertArrayEquals(toArray(expected), bitmap.toArray());
+        for (long value = -70_000L; value < 70_000L; value++) {
+            Assert.assertEquals(expected.contains(value), bitmap.contains(value));
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            long from = random.nextInt(600_000) - 200_000L;
+            int limit = random.nextInt(5_000) + 1;
+            long[] tail = expected.tailSet(from).stream().mapToLong(Long::longValue).limit(limit).toArray();
+            Assert.assertArrayEquals(tail, bitmap.page(from, limit));
+        }
+    }
+
+    @Test
+    public void testAndMatchesRetainAll() {
+        Random random = new Random(13L);
+        LongBitmap first = new LongBitmap();
+        TreeSet<Long> expected = new TreeSet<>();
+        fill(random, first, expected);
+        LongBitmap second = new LongBitmap();
+        TreeSet<Long> other = new TreeSet<>();
+        fill(random, second, other);
+
+        expected.retainAll(other);
+        LongBitmap both = first.and(second);
+        Assert.assertEquals(expected.size(), both.cardinality());
+        Assert.assertArrayEquals(toArray(expected), both.toArray());
+        Assert.assertArrayEquals(toArray(expected), second.and(first).toArray());
+    }
+
+    @Test
+    public void testDenseValuesAreCompact() {
+        LongBitmap bitmap = new LongBitmap();
+        for (long id = 1; id <= 1_000_000L; id++) {
+            bitmap.add(id);
+        }
+        Assert.assertEquals(1_000_000L, bitmap.cardinality());
+        // about a bit per value, where an array of longs takes 8 MB
+        Assert.assertTrue(bitmap.sizeInBytes() < 200_000L);
+        Assert.assertArrayEquals(new long[]{999_999L, 1_000_000L}, bitmap.page(999_999L, 10));
+    }
+
+    // dense runs, turning into bitmap containers, sparse values and duplicates around zero and the extremes
+    private static void fill(Random random, LongBitmap bitmap, TreeSet<Long> expected) {
+        for (int i = 0; i < 100_000; i++) {
+            long value;
+            switch (random.nextInt(3)) {
+                case 0:
+                    value = random.nextInt(10_000);
+                    break;
+                case 1:
+                    value = random.nextInt(400_000) - 200_000L;
+                    break;
+                default:
+                    value = 150_000L + random.nextInt(30_000);
+            }
+            Assert.assertEquals(expected.add(value), bitmap.add(value));
+        }
+        for (long value : new long[]{Long.MIN_VALUE, Long.MAX_VALUE, -1L, 65_535L, 65_536L}) {
+            Assert.assertEquals(expected.add(value), bitmap.add(value));
+        }
+    }
+
+    private static long[] toArray(TreeSet<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+}
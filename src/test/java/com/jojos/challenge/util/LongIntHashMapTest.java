@@ -0,0 +1,50 @@
+package com.jojos.challenge.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test the primitive map against a plain {@link HashMap}
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LongIntHashMapTest {
+
+    @Test
+    public void testMissingKey() {
+        LongIntHashMap map = new LongIntHashMap();
+        Assert.assertEquals(LongIntHashMap.NO_VALUE, map.get(42L));
+        Assert.assertEquals(LongIntHashMap.NO_VALUE, map.remove(42L));
+        Assert.assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(7L);
+
+        for (int i = 0; i < 200_000; i++) {
+            // a small key range forces collisions, overwrites and removals of present keys
+            long key = random.nextInt(5_000) - 2_500L;
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                Assert.assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous.intValue(), map.remove(key));
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                Integer previous = expected.put(key, value);
+                Assert.assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous.intValue(), map.put(key, value));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (long key = -2_500L; key < 2_500L; key++) {
+            Integer value = expected.get(key);
+            Assert.assertEquals(value == null ? LongIntHashMap.NO_VALUE : value.intValue(), map.get(key));
+        }
+    }
+}
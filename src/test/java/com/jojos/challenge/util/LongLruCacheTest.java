@@ -0,0 +1,50 @@
+package com.jojos.challenge.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the cache stays within its weight and evicts the least recently used values first
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class LongLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LongLruCache<String> cache = new LongLruCache<>(30, 1, String::length);
+        cache.put(1L, "aaaaaaaaaa");
+        cache.put(2L, "bbbbbbbbbb");
+        cache.put(3L, "cccccccccc");
+        Assert.assertEquals(30L, cache.weight());
+
+        // the first one is used, so the second one goes to make room
+        Assert.assertEquals("aaaaaaaaaa", cache.get(1L));
+        cache.put(4L, "dddddddddd");
+        Assert.assertNull(cache.get(2L));
+        Assert.assertEquals("aaaaaaaaaa", cache.get(1L));
+        Assert.assertEquals(3, cache.size());
+
+        // a heavy value makes room for itself, one too heavy isn't cached at all
+        cache.put(5L, "eeeeeeeeeeeeeeeeeeee");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(30L, cache.weight());
+        cache.put(6L, "fffffffffffffffffffffffffffffff");
+        Assert.assertNull(cache.get(6L));
+
+        // replacing a value accounts for the difference
+        cache.put(5L, "e");
+        Assert.assertEquals(11L, cache.weight());
+    }
+
+    @Test
+    public void testStaysWithinWeight() {
+        LongLruCache<long[]> cache = new LongLruCache<>(64 * 1024, 16, value -> value.length);
+        for (long key = 0; key < 100_000; key++) {
+            cache.put(key, new long[(int) (key % 100) + 1]);
+        }
+        Assert.assertTrue(cache.weight() <= 64 * 1024);
+        Assert.assertTrue(cache.size() > 16 * 10);
+        Assert.assertNotNull(cache.get(99_999L));
+    }
+}